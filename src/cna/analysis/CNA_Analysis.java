@@ -10,7 +10,9 @@ import java.util.LinkedList;
 
 import cna.data.Alignment;
 import cna.data.DataSet;
+import cna.data.RepeatLevel;
 import cna.data.RepeatMasker;
+import cna.parallel.ExecutionRuntime;
 
 /**
  * Main class for performing analyses. Define your desired analysis in the body of the main method using the functionality in the CompositionAnalysis, CoverageAnalysis and FragmentsSizeAnalysis classes.
@@ -123,6 +125,7 @@ public class CNA_Analysis {
 		
 //		saveData(referenceBasedCoverageLevelsBovine, repeatFamilies, "ReferenceBasedCoverageLevels_BovineRF4");
 
+		ExecutionRuntime.shutdown();
 	}
 
 	/**
@@ -158,6 +161,19 @@ public class CNA_Analysis {
 		}
 	}
 	
+	/**
+	 * Saves compositions at several levels of the repeat hierarchy, one textfile per level (fileName_class,
+	 * fileName_family, fileName_name) in the format of saveData(ArrayList, LinkedList, String).
+	 * @param data list of double arrays per level
+	 * @param levels list of repeat classes, families or names per level (header)
+	 * @param fileName name of the files
+	 */
+	public static void saveData(LinkedHashMap<RepeatLevel, ArrayList<double[]>> data,
+			LinkedHashMap<RepeatLevel, LinkedList<String>> levels, String fileName) {
+		for (RepeatLevel level : data.keySet())
+			saveData(data.get(level), levels.get(level), fileName + "_" + level.name().toLowerCase());
+	}
+
 	/**
 	 * Saves a single double array (i.e. repeat abundances) to a textfile.
 	 * @param vector double array
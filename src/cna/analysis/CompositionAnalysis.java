@@ -13,9 +13,14 @@ import java.io.FileOutputStream;
 import java.io.FileReader;
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.Random;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
 
 import javax.imageio.ImageIO;
 
@@ -31,8 +36,17 @@ import org.jfree.ui.RectangleEdge;
 import org.jfree.ui.RectangleInsets;
 
 import cna.data.Alignment;
+import cna.data.AlignmentStatistics;
+import cna.data.CoverageCursor;
 import cna.data.Genome;
-import cna.data.RepeatMasker;
+import cna.data.RepeatComposition;
+import cna.data.RepeatLabelTrack;
+import cna.data.RepeatLevel;
+import cna.data.RepeatMaskProvider;
+import cna.parallel.CoverageKernel;
+import cna.parallel.CoverageKernels;
+import cna.parallel.ExecutionRuntime.WorkloadClass;
+import cna.parallel.TaskScope;
 
 /**
  * Provides functionality to analyze the composition in terms of repeat families of sam/bam alignment data
@@ -42,120 +56,339 @@ import cna.data.RepeatMasker;
 public class CompositionAnalysis {
 
 	/**
+	 * Calculates the compositions of all alignments. Partial coverages of every alignment and chromosome are computed
+	 * concurrently as exact integer sums and reduced in chromosome order, so the result does not depend on the number
+	 * of threads or the order of completion. Alignments with repeat compositions counted at ingest for the same
+	 * repeat families are not read again.
 	 * @param alignments list of alignments
 	 * @param repeatFamilies names of considered repeat families
 	 * @return a hashmap containing compositions of all alignments as double arrays
 	 */
 	public static LinkedHashMap<String, ArrayList<double[]>> calculateCompositions(
 			LinkedHashMap<String, ArrayList<Alignment>> alignments, LinkedList<String> repeatFamilies) {
+		LinkedHashMap<RepeatLevel, LinkedList<String>> levels = new LinkedHashMap<RepeatLevel, LinkedList<String>>();
+		levels.put(RepeatLevel.FAMILY, repeatFamilies);
+		return CompositionAnalysis.calculateCompositions(alignments, levels).get(RepeatLevel.FAMILY);
+	}
+
+	/**
+	 * Calculates the compositions of all alignments at several levels of the repeat hierarchy (repClass, repFamily,
+	 * repName) in one pass, the coverage of every alignment and chromosome is read once for all levels.
+	 * @param alignments list of alignments
+	 * @param levels names of the considered repeat classes, families or names per level
+	 * @return a hashmap per level containing compositions of all alignments as double arrays
+	 */
+	public static LinkedHashMap<RepeatLevel, LinkedHashMap<String, ArrayList<double[]>>> calculateCompositions(
+			LinkedHashMap<String, ArrayList<Alignment>> alignments,
+			final LinkedHashMap<RepeatLevel, LinkedList<String>> levels) {
 
 		Genome genome = alignments.get(alignments.keySet().iterator().next()).get(0).getGenome();
+		ArrayList<String> chromosomes = RegionDetector.getAutosomesAndX(genome);
+
+		// label combination of every position per level, shared read-only by all tasks
+		ArrayList<RepeatLabelTrack[]> labelTracks = new ArrayList<RepeatLabelTrack[]>(chromosomes.size());
+		for (String chromosome : chromosomes) {
+			RepeatLabelTrack[] tracks = new RepeatLabelTrack[levels.size()];
+			int l = 0;
+			for (RepeatLevel level : levels.keySet())
+				tracks[l++] = RepeatMaskProvider.getRepeatLabels(genome, chromosome, level, levels.get(level));
+			labelTracks.add(tracks);
+		}
 
-		// init results datastructure
-		LinkedHashMap<String, ArrayList<double[]>> results = new LinkedHashMap<String, ArrayList<double[]>>();
+		// init results datastructure (coverage per level, family and number of families sharing the positions)
+		LinkedHashMap<String, ArrayList<long[][][]>> coverages = new LinkedHashMap<String, ArrayList<long[][][]>>();
 		for (String key : alignments.keySet()) {
-			ArrayList<double[]> al = new ArrayList<double[]>(alignments.get(key).size());
-			for (int i = 0; i < alignments.get(key).size(); i++)
-				al.add(new double[repeatFamilies.size() + 2]);
-			results.put(key, al);
+			ArrayList<long[][][]> al = new ArrayList<long[][][]>(alignments.get(key).size());
+			for (int i = 0; i < alignments.get(key).size(); i++) {
+				long[][][] coverage = new long[levels.size()][][];
+				int l = 0;
+				for (LinkedList<String> repeatFamilies : levels.values())
+					coverage[l++] = new long[repeatFamilies.size() + 2][repeatFamilies.size() + 1];
+				al.add(coverage);
+			}
+			coverages.put(key, al);
 		}
 
-		// Loop over all chromosomes
-		for (String chromosome : genome.getChromosomeNames()) {
-			if (chromosome.equals("Y") || chromosome.equals("MT"))
-				continue;
+		try (TaskScope<long[][][]> scope = new TaskScope<long[][][]>(WorkloadClass.IO)) {
+			ArrayList<Future<long[][][]>> futures = new ArrayList<Future<long[][][]>>();
+
+			// one task per chromosome and alignment
+			for (int c = 0; c < chromosomes.size(); c++) {
+				final String chromosome = chromosomes.get(c);
+				final RepeatLabelTrack[] labels = labelTracks.get(c);
+				for (String key : alignments.keySet())
+					for (final Alignment alignment : alignments.get(key))
+						futures.add(scope.fork(new Callable<long[][][]>() {
+							@Override
+							public long[][][] call() throws Exception {
+								return CompositionAnalysis.calculatePartialCoverages(alignment, chromosome, labels,
+										levels);
+							}
+						}));
+			}
+
+			// reduce in order of forking
+			int task = 0;
+			for (int c = 0; c < chromosomes.size(); c++)
+				for (String key : alignments.keySet())
+					for (long[][][] coverage : coverages.get(key)) {
+						long[][][] partial = futures.get(task++).get();
+						for (int l = 0; l < coverage.length; l++)
+							for (int f = 0; f < coverage[l].length; f++)
+								for (int k = 0; k < coverage[l][f].length; k++)
+									coverage[l][f][k] += partial[l][f][k];
+					}
+		} catch (ExecutionException e) {
+			System.out.println("ERROR reading covA files");
+			e.getCause().printStackTrace();
+			System.exit(0);
+		} catch (InterruptedException e) {
+			System.out.println("Composition analysis interrupted");
+			e.printStackTrace();
+			System.exit(0);
+		}
+
+		LinkedHashMap<RepeatLevel, LinkedHashMap<String, ArrayList<double[]>>> results =
+				new LinkedHashMap<RepeatLevel, LinkedHashMap<String, ArrayList<double[]>>>();
+		int l = 0;
+		for (RepeatLevel level : levels.keySet()) {
+			LinkedHashMap<String, ArrayList<double[]>> levelResults = new LinkedHashMap<String, ArrayList<double[]>>();
+			for (String key : coverages.keySet()) {
+				ArrayList<double[]> res = new ArrayList<double[]>(coverages.get(key).size());
+				for (long[][][] coverage : coverages.get(key))
+					res.add(CompositionAnalysis.calculateComposition(coverage[l]));
+				levelResults.put(key, res);
+			}
+			results.put(level, levelResults);
+			l++;
+		}
+		return results;
+	}
 
-			// create repeat masks
-			int[][] repeatMasks = new int[repeatFamilies.size() + 1][]; // repeat families + other repeats
+	// divides the coverage of positions shared by k families among them and normalizes to the total coverage
+	private static double[] calculateComposition(long[][] coverage) {
+		double[] r = new double[coverage.length];
+		for (int f = 0; f < r.length - 1; f++)
+			for (int k = 1; k < coverage[f].length; k++)
+				r[f] += coverage[f][k] / (double) k;
+		r[r.length - 1] = coverage[r.length - 1][1]; // non repetitive
 
-			for (int i = 0; i < repeatFamilies.size(); i++) {
-				int[] mask = RepeatMasker.getRepeatFamilyMask(genome, chromosome, repeatFamilies.get(i));
-				repeatMasks[i] = mask;
+		double sum = 0.0d;
+		for (int i = 0; i < r.length; i++)
+			sum += r[i];
+
+		for (int i = 0; i < r.length; i++)
+			r[i] /= sum;
+		return r;
+	}
+
+	// coverage of an alignment on a chromosome per level for every family (followed by non repetitive positions) and
+	// number of families sharing the positions, summed per segment of equal label or counted at ingest
+	private static long[][][] calculatePartialCoverages(Alignment alignment, String chromosome,
+			RepeatLabelTrack[] labels, LinkedHashMap<RepeatLevel, LinkedList<String>> levels) throws IOException {
+		long[][][] coverages = new long[labels.length][][];
+		long[][] combinationCoverages = new long[labels.length][];
+		int numberOfTracks = 0; // levels summed from the coverage
+		int l = 0;
+		for (RepeatLevel level : levels.keySet()) {
+			RepeatComposition composition = level == RepeatLevel.FAMILY
+					? alignment.getRepeatComposition(levels.get(level))
+					: null;
+			if (composition != null && composition.contains(chromosome))
+				coverages[l] = composition.getCoverages(chromosome);
+			else {
+				combinationCoverages[l] = new long[labels[l].getNumberOfCombinations()];
+				numberOfTracks++;
 			}
+			l++;
+		}
+		if (numberOfTracks == 0)
+			return coverages;
+
+		CoverageKernel kernel = CoverageKernels.get();
+		CoverageCursor cursor = alignment.openAbsoluteCoverageCursor(chromosome, CoverageCursor.DEFAULT_CHUNK_SIZE);
+		// prefix sums are shared by the levels
+		long[] prefix = new long[CoverageCursor.DEFAULT_CHUNK_SIZE + 1];
 
-			// Other repeats
-			int[] repeatMaskOther = RepeatMasker.getRepeatMask(genome, chromosome);
-			for (int i = 0; i < repeatMasks.length - 1; i++)
-				for (int pos = 0; pos < repeatMaskOther.length; pos++)
-					if (repeatMasks[i][pos] == 1)
-						repeatMaskOther[pos] = 0;
-
-			repeatMasks[repeatMasks.length - 1] = repeatMaskOther;
-
-			// Loop over samples
-			for (String key : alignments.keySet()) {
-				for (int alignmentIndex = 0; alignmentIndex < alignments.get(key).size(); alignmentIndex++) {
-					int[] absoluteCoverage = alignments.get(key).get(alignmentIndex).getAbsoluteCoverage(chromosome);
-
-					for (int pos = 0; pos < absoluteCoverage.length; pos++) {
-						int match = 0;
-
-						for (int[] mask : repeatMasks)
-							match += mask[pos];
-						if (match == 0)
-							results.get(key).get(alignmentIndex)[repeatFamilies.size() + 1] += absoluteCoverage[pos];
-						else
-							for (int i = 0; i < repeatMasks.length; i++)
-								if (repeatMasks[i][pos] == 1)
-									results.get(key).get(alignmentIndex)[i] += (absoluteCoverage[pos] / (double) match);
+		try {
+			while (cursor.next()) {
+				int[] absoluteCoverage = cursor.getIntChunk();
+				int chunkStart = cursor.getChunkStart();
+				int chunkLength = cursor.getChunkLength();
+				int chunkEnd = chunkStart + chunkLength;
+
+				// prefix sums once per chunk, a difference per segment
+				if (prefix.length <= chunkLength)
+					prefix = new long[chunkLength + 1];
+				kernel.prefixSum(absoluteCoverage, prefix, 0, chunkLength);
+
+				// segments of equal label overlapping the chunk
+				for (l = 0; l < labels.length; l++) {
+					if (combinationCoverages[l] == null)
+						continue;
+					RepeatLabelTrack track = labels[l];
+					for (int segment = track.findSegment(chunkStart); segment < track.getNumberOfSegments()
+							&& track.getSegmentStart(segment) < chunkEnd; segment++) {
+						int from = Math.max(track.getSegmentStart(segment), chunkStart) - chunkStart;
+						int to = Math.min(track.getSegmentEnd(segment), chunkEnd) - chunkStart;
+						combinationCoverages[l][track.getSegmentCombination(segment)] += prefix[to] - prefix[from];
 					}
 				}
 			}
+		} finally {
+			cursor.close();
 		}
 
-		for (ArrayList<double[]> res : results.values()) {
-			for (double[] r : res) {
-				double sum = 0.0d;
-				for (int i = 0; i < r.length; i++)
-					sum += r[i];
+		for (l = 0; l < labels.length; l++)
+			if (combinationCoverages[l] != null)
+				coverages[l] = labels[l].getFamilyCoverages(combinationCoverages[l]);
+		return coverages;
+	}
+
+	/**
+	 * Estimates the compositions of all alignments from a random sample of fragments, stratified by chromosome. Only
+	 * the fragments files are read, the estimates refer to the coverage of fragments (covAfo, see Config.fragmentsOnly)
+	 * and come with standard errors, so that exact compositions (calculateCompositions) can be restricted to the
+	 * alignments of interest. Samples are drawn from a generator seeded per alignment and chromosome, estimates are
+	 * reproducible for the same seed.
+	 * @param alignments list of alignments
+	 * @param repeatFamilies names of considered repeat families
+	 * @param samplingFraction share of fragments sampled from every chromosome (at least two fragments)
+	 * @param seed seed of the random sample
+	 * @return a hashmap containing the composition estimates of all alignments
+	 */
+	public static LinkedHashMap<String, ArrayList<CompositionEstimate>> estimateCompositions(
+			LinkedHashMap<String, ArrayList<Alignment>> alignments, LinkedList<String> repeatFamilies,
+			final double samplingFraction, final long seed) {
 
-				for (int i = 0; i < r.length; i++)
-					r[i] /= sum;
+		Genome genome = alignments.get(alignments.keySet().iterator().next()).get(0).getGenome();
+		ArrayList<String> chromosomes = RegionDetector.getAutosomesAndX(genome);
+		final int dimension = repeatFamilies.size() + 2;
+
+		ArrayList<RepeatLabelTrack> labelTracks = new ArrayList<RepeatLabelTrack>(chromosomes.size());
+		for (String chromosome : chromosomes)
+			labelTracks.add(RepeatMaskProvider.getRepeatLabels(genome, chromosome, repeatFamilies));
+
+		LinkedHashMap<String, ArrayList<CompositionEstimate>> results =
+				new LinkedHashMap<String, ArrayList<CompositionEstimate>>();
+		for (String key : alignments.keySet()) {
+			ArrayList<CompositionEstimate> res = new ArrayList<CompositionEstimate>(alignments.get(key).size());
+			for (int i = 0; i < alignments.get(key).size(); i++)
+				res.add(new CompositionEstimate(dimension));
+			results.put(key, res);
+		}
+
+		try (TaskScope<CompositionEstimate> scope = new TaskScope<CompositionEstimate>(WorkloadClass.IO)) {
+			ArrayList<Future<CompositionEstimate>> futures = new ArrayList<Future<CompositionEstimate>>();
+
+			// one stratum per chromosome and alignment
+			for (int c = 0; c < chromosomes.size(); c++) {
+				final String chromosome = chromosomes.get(c);
+				final RepeatLabelTrack labels = labelTracks.get(c);
+				for (String key : alignments.keySet())
+					for (final Alignment alignment : alignments.get(key))
+						futures.add(scope.fork(new Callable<CompositionEstimate>() {
+							@Override
+							public CompositionEstimate call() {
+								Random random = new Random(
+										seed * 31 + (alignment.getID() + "/" + chromosome).hashCode());
+								return CompositionAnalysis.sampleFragments(alignment.getFragments(chromosome),
+										labels, dimension, samplingFraction, random);
+							}
+						}));
 			}
 
+			// merge in order of forking
+			int task = 0;
+			for (int c = 0; c < chromosomes.size(); c++)
+				for (String key : alignments.keySet())
+					for (CompositionEstimate estimate : results.get(key))
+						estimate.merge(futures.get(task++).get());
+		} catch (ExecutionException e) {
+			System.out.println("ERROR reading fragments files");
+			e.getCause().printStackTrace();
+			System.exit(0);
+		} catch (InterruptedException e) {
+			System.out.println("Composition estimation interrupted");
+			e.printStackTrace();
+			System.exit(0);
 		}
 		return results;
 	}
 
+	// simple random sample of the fragments of a chromosome (selection sampling), every sampled fragment contributes
+	// its length per family of the label segments it spans
+	private static CompositionEstimate sampleFragments(int[] fragments, RepeatLabelTrack labels, int dimension,
+			double samplingFraction, Random random) {
+		CompositionEstimate estimate = new CompositionEstimate(dimension);
+		int numberOfFragments = fragments.length / 2;
+		estimate.addStratum(numberOfFragments);
+		int sampleSize = Math.min(numberOfFragments, Math.max(2, (int) Math.ceil(samplingFraction * numberOfFragments)));
+
+		double[] values = new double[dimension];
+		for (int i = 0; i < numberOfFragments && sampleSize > 0; i++) {
+			if (random.nextDouble() * (numberOfFragments - i) >= sampleSize)
+				continue;
+			sampleSize--;
+
+			Arrays.fill(values, 0.0d);
+			int start = fragments[2 * i];
+			int end = Math.min(fragments[2 * i + 1] + 1, labels.getChromosomeSize()); // fragment ends are inclusive
+			for (int segment = labels.findSegment(start); segment < labels.getNumberOfSegments()
+					&& labels.getSegmentStart(segment) < end; segment++) {
+				int length = Math.min(labels.getSegmentEnd(segment), end)
+						- Math.max(labels.getSegmentStart(segment), start);
+				int[] families = labels.getFamilies(labels.getSegmentCombination(segment));
+				if (families.length == 0)
+					values[dimension - 1] += length;
+				else
+					for (int family : families)
+						values[family] += length / (double) families.length;
+			}
+			estimate.addObservation(values);
+		}
+		return estimate;
+	}
+
 	/**
 	 * @param repeatFamilies names of considered repeat families
 	 * @param genome the respective genome
 	 * @return a double array containing the genomic abundances of the specified repeat families
 	 */
 	public static double[] calculateRepeatAbundances(LinkedList<String> repeatFamilies, Genome genome) {
+		return CompositionAnalysis.calculateRepeatAbundances(RepeatLevel.FAMILY, repeatFamilies, genome);
+	}
+
+	/**
+	 * @param level level of the repeat hierarchy
+	 * @param repeatFamilies names of considered repeat classes, families or names (depending on level)
+	 * @param genome the respective genome
+	 * @return a double array containing the genomic abundances of the specified repeat classes, families or names
+	 */
+	public static double[] calculateRepeatAbundances(RepeatLevel level, LinkedList<String> repeatFamilies,
+			Genome genome) {
 		double[] repeatAbundances = new double[repeatFamilies.size() + 2];
 
 		for (String chromosome : genome.getChromosomeNames()) {
 			if (chromosome.equals("Y") || chromosome.equals("MT"))
 				continue;
 
-			// create repeat masks
-			int[][] repeatMasks = new int[repeatFamilies.size() + 1][]; // repeat families + other repeats
+			// family combination of every position (repeat families + other repeats)
+			RepeatLabelTrack labels = RepeatMaskProvider.getRepeatLabels(genome, chromosome, level, repeatFamilies);
 
-			for (int i = 0; i < repeatFamilies.size(); i++) {
-				int[] mask = RepeatMasker.getRepeatFamilyMask(genome, chromosome, repeatFamilies.get(i));
-				repeatMasks[i] = mask;
-			}
+			// interval-length arithmetic: total length per family combination, divided among its families
+			long[] combinationLengths = new long[labels.getNumberOfCombinations()];
+			for (int segment = 0; segment < labels.getNumberOfSegments(); segment++)
+				combinationLengths[labels.getSegmentCombination(segment)] += labels.getSegmentEnd(segment)
+						- labels.getSegmentStart(segment);
 
-			// Other repeats
-			int[] repeatMaskOther = RepeatMasker.getRepeatMask(genome, chromosome);
-			for (int i = 0; i < repeatMasks.length - 1; i++)
-				for (int pos = 0; pos < repeatMaskOther.length; pos++)
-					if (repeatMasks[i][pos] == 1)
-						repeatMaskOther[pos] = 0;
-
-			repeatMasks[repeatMasks.length - 1] = repeatMaskOther;
-
-			for (int pos = 0; pos < genome.getChromosomeSize(chromosome); pos++) {
-				int match = 0;
-				for (int[] mask : repeatMasks)
-					match += mask[pos];
-				if (match == 0)
-					repeatAbundances[repeatAbundances.length - 1] += 1.0d;
+			for (int combination = 0; combination < combinationLengths.length; combination++) {
+				int[] families = labels.getFamilies(combination);
+				if (families.length == 0)
+					repeatAbundances[repeatAbundances.length - 1] += combinationLengths[combination];
 				else
-					for (int i = 0; i < repeatMasks.length; i++)
-						if (repeatMasks[i][pos] == 1)
-							repeatAbundances[i] += (1.0d / (double) match);
+					for (int family : families)
+						repeatAbundances[family] += combinationLengths[combination] / (double) families.length;
 			}
 		}
 
@@ -211,16 +444,13 @@ public class CompositionAnalysis {
 
 		double mappedNtsTotal = 0;
 		double mappedNtsMito = 0;
+		AlignmentStatistics statistics = alignment.getStatistics();
 
 		for (String chromosome : alignment.getGenome().getChromosomeNames())
 			if (chromosome.equals("Y"))
 				continue;
 			else {
-				double mappedNts = 0;
-				int[] absoluteCoverage = alignment.getAbsoluteCoverage(chromosome);
-
-				for (int pos = 0; pos < absoluteCoverage.length; pos++)
-					mappedNts += absoluteCoverage[pos];
+				double mappedNts = statistics.getSum(chromosome);
 
 				if (chromosome.equals("MT"))
 					mappedNtsMito = mappedNts;
@@ -0,0 +1,213 @@
+package cna.analysis;
+
+import java.util.ArrayList;
+
+/**
+ * Estimate of the composition of an alignment from a stratified random sample of fragments (strata are
+ * chromosomes). Each sampled fragment contributes its length per repeat family (shared positions are divided among
+ * the families), other repeats and non repetitive positions. Compositions and reference based coverage levels are
+ * ratios of the estimated stratum totals, their standard errors are approximated by the delta method (linearized
+ * ratio estimator with finite population correction).
+ * @author Stefan Grabuschnig
+ *
+ */
+public class CompositionEstimate {
+	private int dimension; // repeat families + other repeats + non repetitive
+	private ArrayList<Stratum> strata;
+
+	private static class Stratum {
+		private long populationSize;
+		private long sampleSize;
+		private double[] sum;
+		private double[][] products;
+	}
+
+	/**
+	 * instantiates an empty estimate (no strata yet)
+	 * @param dimension number of repeat families + 2 (other repeats and non repetitive)
+	 */
+	public CompositionEstimate(int dimension) {
+		this.dimension = dimension;
+		this.strata = new ArrayList<Stratum>();
+	}
+
+	/**
+	 * adds a stratum, following observations are sampled from it
+	 * @param populationSize number of fragments of the stratum
+	 */
+	public void addStratum(long populationSize) {
+		Stratum stratum = new Stratum();
+		stratum.populationSize = populationSize;
+		stratum.sum = new double[this.dimension];
+		stratum.products = new double[this.dimension][this.dimension];
+		this.strata.add(stratum);
+	}
+
+	/**
+	 * adds a sampled fragment to the last stratum
+	 * @param values length of the fragment per repeat family, other repeats and non repetitive positions
+	 */
+	public void addObservation(double[] values) {
+		Stratum stratum = this.strata.get(this.strata.size() - 1);
+		stratum.sampleSize++;
+		for (int i = 0; i < this.dimension; i++) {
+			stratum.sum[i] += values[i];
+			for (int j = 0; j < this.dimension; j++)
+				stratum.products[i][j] += values[i] * values[j];
+		}
+	}
+
+	/**
+	 * appends the strata of another estimate of the same alignment
+	 * @param estimate estimate with disjoint strata
+	 */
+	public void merge(CompositionEstimate estimate) {
+		this.strata.addAll(estimate.strata);
+	}
+
+	/**
+	 * @return the number of sampled fragments
+	 */
+	public long getSampleSize() {
+		long sampleSize = 0;
+		for (Stratum stratum : this.strata)
+			sampleSize += stratum.sampleSize;
+		return sampleSize;
+	}
+
+	/**
+	 * @return the estimated composition (same layout as CompositionAnalysis.calculateCompositions)
+	 */
+	public double[] getComposition() {
+		double[] composition = new double[this.dimension];
+		double[] ones = this.getOnes();
+		for (int i = 0; i < this.dimension; i++)
+			composition[i] = this.getRatio(this.getUnitVector(i), ones);
+		return composition;
+	}
+
+	/**
+	 * @return the standard errors of the estimated composition
+	 */
+	public double[] getStandardErrors() {
+		double[] standardErrors = new double[this.dimension];
+		double[] ones = this.getOnes();
+		for (int i = 0; i < this.dimension; i++)
+			standardErrors[i] = Math.sqrt(this.getVariance(this.getUnitVector(i), ones));
+		return standardErrors;
+	}
+
+	/**
+	 * @param z quantile of the standard normal distribution (i.e. 1.96 for 95% confidence)
+	 * @return lower bounds of the confidence intervals of the composition
+	 */
+	public double[] getLowerBounds(double z) {
+		double[] composition = this.getComposition();
+		double[] standardErrors = this.getStandardErrors();
+		for (int i = 0; i < this.dimension; i++)
+			composition[i] = Math.max(0.0d, composition[i] - z * standardErrors[i]);
+		return composition;
+	}
+
+	/**
+	 * @param z quantile of the standard normal distribution (i.e. 1.96 for 95% confidence)
+	 * @return upper bounds of the confidence intervals of the composition
+	 */
+	public double[] getUpperBounds(double z) {
+		double[] composition = this.getComposition();
+		double[] standardErrors = this.getStandardErrors();
+		for (int i = 0; i < this.dimension; i++)
+			composition[i] = Math.min(1.0d, composition[i] + z * standardErrors[i]);
+		return composition;
+	}
+
+	/**
+	 * @param repeatAbundances genomic abundances of the considered repeat families
+	 * @param referenceIndex index of the reference repeat familiy (or non repetetive)
+	 * @return the estimated coverage levels relative to the reference (see
+	 *         CompositionAnalysis.calculateReferenceBasedCoverageLevels)
+	 */
+	public double[] getReferenceBasedCoverageLevels(double[] repeatAbundances, int referenceIndex) {
+		double[] levels = new double[this.dimension];
+		double[] reference = this.getUnitVector(referenceIndex);
+		for (int i = 0; i < this.dimension; i++)
+			levels[i] = this.getRatio(this.getUnitVector(i), reference) * repeatAbundances[referenceIndex]
+					/ repeatAbundances[i];
+		return levels;
+	}
+
+	/**
+	 * @param repeatAbundances genomic abundances of the considered repeat families
+	 * @param referenceIndex index of the reference repeat familiy (or non repetetive)
+	 * @return the standard errors of the estimated reference based coverage levels
+	 */
+	public double[] getReferenceBasedStandardErrors(double[] repeatAbundances, int referenceIndex) {
+		double[] standardErrors = new double[this.dimension];
+		double[] reference = this.getUnitVector(referenceIndex);
+		for (int i = 0; i < this.dimension; i++)
+			standardErrors[i] = Math.sqrt(this.getVariance(this.getUnitVector(i), reference))
+					* repeatAbundances[referenceIndex] / repeatAbundances[i];
+		return standardErrors;
+	}
+
+	// ratio of the estimated totals a * Y / b * Y
+	private double getRatio(double[] a, double[] b) {
+		double numerator = 0.0d;
+		double denominator = 0.0d;
+		for (Stratum stratum : this.strata) {
+			if (stratum.sampleSize == 0)
+				continue;
+			double weight = stratum.populationSize / (double) stratum.sampleSize;
+			for (int i = 0; i < this.dimension; i++) {
+				numerator += weight * a[i] * stratum.sum[i];
+				denominator += weight * b[i] * stratum.sum[i];
+			}
+		}
+		return numerator / denominator;
+	}
+
+	// delta method variance of the ratio, z = (a - R * b) * y is the linearized ratio of a fragment
+	private double getVariance(double[] a, double[] b) {
+		double ratio = this.getRatio(a, b);
+		double[] c = new double[this.dimension];
+		for (int i = 0; i < this.dimension; i++)
+			c[i] = a[i] - ratio * b[i];
+
+		double variance = 0.0d;
+		double denominator = 0.0d;
+		for (Stratum stratum : this.strata) {
+			if (stratum.sampleSize == 0)
+				continue;
+			double n = stratum.sampleSize;
+			double N = stratum.populationSize;
+			for (int i = 0; i < this.dimension; i++)
+				denominator += N / n * b[i] * stratum.sum[i];
+			if (stratum.sampleSize < 2)
+				continue;
+
+			double sum = 0.0d;
+			double squares = 0.0d;
+			for (int i = 0; i < this.dimension; i++) {
+				sum += c[i] * stratum.sum[i];
+				for (int j = 0; j < this.dimension; j++)
+					squares += c[i] * c[j] * stratum.products[i][j];
+			}
+			double sampleVariance = Math.max(0.0d, (squares - sum * sum / n) / (n - 1));
+			variance += N * N * (1.0d - n / N) * sampleVariance / n;
+		}
+		return variance / (denominator * denominator);
+	}
+
+	private double[] getUnitVector(int index) {
+		double[] unitVector = new double[this.dimension];
+		unitVector[index] = 1.0d;
+		return unitVector;
+	}
+
+	private double[] getOnes() {
+		double[] ones = new double[this.dimension];
+		for (int i = 0; i < this.dimension; i++)
+			ones[i] = 1.0d;
+		return ones;
+	}
+}
@@ -11,7 +11,9 @@ import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.LinkedList;
-import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.function.Function;
 
 import org.jfree.chart.ChartFactory;
 import org.jfree.chart.JFreeChart;
@@ -28,12 +30,20 @@ import org.jfree.ui.RectangleInsets;
 import cna.config.Config;
 import cna.data.Alignment;
 import cna.data.Annotation;
+import cna.data.BulkAnnotator;
+import cna.data.ChromosomeRegions;
+import cna.data.CoverageCursor;
 import cna.data.Gene;
 import cna.data.Genome;
+import cna.data.MultiCoverageCursor;
 import cna.data.Region;
+import cna.data.RegionSet;
+import cna.data.RegionSweep;
 import cna.data.Repeat;
-import cna.data.RepeatMasker;
-import cna.parallel.ParallelArrayAdder;
+import cna.data.RepeatIntervalIndex;
+import cna.data.RepeatMaskProvider;
+import cna.parallel.CohortReducer;
+import cna.parallel.CohortStatistics;
 import cna.util.HistogramBuilder;
 import cna.util.RegionImporter;
 import cna.util.SVGBuilder;
@@ -47,6 +57,9 @@ import cna.util.SVGBuilder;
  */
 public class CoverageAnalysis {
 
+	// number of regions fetched ahead of rendering in plotAll
+	private static final int PLOT_PREFETCH = 64;
+
 	/**
 	 * evaluates and prints coverage parameters for the average coverage of a set of
 	 * alignments. Distinguishes between covered und uncovered (noisy) regions based
@@ -81,6 +94,60 @@ public class CoverageAnalysis {
 		System.out.println("Percentage: " + (100.0 * covered / genomeSize));
 	}
 
+	/**
+	 * evaluates and prints coverage parameters (see evaluateGenomeCoverage) for
+	 * several thresholds and size windows in a single pass over the average
+	 * coverage of a set of alignments
+	 * 
+	 * @param alignments
+	 *            list of alignments
+	 * @param thresholds
+	 *            thresholds for coverage interpretation
+	 * @param minSizes
+	 *            minimum sizes for a region classified as covered (one per size
+	 *            window)
+	 * @param maxSizes
+	 *            maximum sizes for a region classified as covered (one per size
+	 *            window)
+	 * @return the regions interpreted as covered and the coverage attributed to
+	 *         regions for each threshold (sorted ascending) and size window
+	 */
+	public static RegionSweep evaluateGenomeCoverage(ArrayList<Alignment> alignments, double[] thresholds,
+			int[] minSizes, int[] maxSizes) {
+		Genome genome = alignments.get(0).getGenome();
+		ArrayList<String> chromosomes = RegionDetector.getAutosomesAndX(genome);
+		System.out.println("Starting region size evaluation...");
+		RegionSweep sweep = RegionDetector.sweep(alignments, chromosomes, thresholds, minSizes, maxSizes, true);
+
+		double genomeSize = 0;
+		for (String chromosome : chromosomes)
+			genomeSize += genome.getChromosomeSize(chromosome);
+
+		for (int t = 0; t < sweep.getThresholds().length; t++) {
+			System.out.println("Threshold: " + sweep.getThresholds()[t]);
+			System.out.println(sweep.getAttributedPercentage(t) + "% of total coverage attributed to regions.");
+
+			for (int w = 0; w < minSizes.length; w++) {
+				RegionSet regions = sweep.getRegions(t, w);
+				double covered = 0;
+				int largest = 0;
+
+				for (int i = 0; i < regions.size(); i++) {
+					covered += regions.getSize(i);
+					largest = Math.max(largest, regions.getSize(i));
+				}
+
+				System.out.println("Size window: " + minSizes[w] + " - " + maxSizes[w]);
+				System.out.println("Regions: " + regions.size());
+				System.out.println("Largest region: " + largest);
+				System.out.println("Genomesize: " + genomeSize);
+				System.out.println("Covered: " + covered);
+				System.out.println("Percentage: " + (100.0 * covered / genomeSize));
+			}
+		}
+		return sweep;
+	}
+
 	/**
 	 * Creates a histogram of the sizes of region classified as covered (average
 	 * coverage of alignments)
@@ -142,51 +209,40 @@ public class CoverageAnalysis {
 			sortedSizes[i] = new ArrayList<Integer>(10000);
 		sortedSizes[sortedSizes.length - 1] = new ArrayList<Integer>(10000);
 
-		for (String chromosome : genome.getChromosomeNames()) {
-			if (chromosome.equals("Y") || chromosome.equals("MT"))
-				continue;
+		// detect regions for all chromosomes in parallel
+		ArrayList<String> chromosomes = RegionDetector.getAutosomesAndX(genome);
+		ArrayList<ChromosomeRegions> detectedRegions = RegionDetector.detect(alignments, chromosomes, threshold,
+				minSize, maxSize, false);
 
+		for (int c = 0; c < chromosomes.size(); c++) {
+			String chromosome = chromosomes.get(c);
 			System.out.println("Chromosome: " + chromosome);
 
 			genomeSize += genome.getChromosomeSize(chromosome);
 
-			// create repeat masks
-			int[][] repeatMasks = new int[repeatFamilies.size() + 1][]; // repeat families + other repeats
-
-			for (int i = 0; i < repeatFamilies.size(); i++) {
-				int[] mask = RepeatMasker.getRepeatFamilyMask(genome, chromosome, repeatFamilies.get(i));
-				repeatMasks[i] = mask;
-			}
-
-			// Other repeats
-			int[] repeatMaskOther = RepeatMasker.getRepeatMask(genome, chromosome);
-			for (int i = 0; i < repeatMasks.length - 1; i++)
-				for (int pos = 0; pos < repeatMaskOther.length; pos++)
-					if (repeatMasks[i][pos] == 1)
-						repeatMaskOther[pos] = 0;
-
-			repeatMasks[repeatMasks.length - 1] = repeatMaskOther;
+			// repeat intervals (families not considered count as other repeats)
+			RepeatIntervalIndex repeatIntervals = RepeatMaskProvider.getRepeatIntervals(chromosome);
+			int[] familyMapping = repeatIntervals.getFamilyMapping(repeatFamilies);
 
 			// sort region sizes
-			ArrayList<Region> regions = CoverageAnalysis.getCoveredRegionsForChromosome(alignments, chromosome,
-					threshold, minSize, maxSize);
+			RegionSet regions = detectedRegions.get(c).getRegionSet();
 
 			numRegions += regions.size();
 
-			for (Region r : regions) {
-				covered += r.getSize();
+			for (int r = 0; r < regions.size(); r++) {
+				covered += regions.getSize(r);
 				boolean nonRepetetive = true;
 
-				for (int i = 0; i < repeatMasks.length; i++)
-					for (int pos = r.getStart(); pos <= r.getStop(); pos++)
-						if (repeatMasks[i][pos] == 1) {
-							sortedSizes[i].add(r.getSize());
-							nonRepetetive = false;
-							break;
-						}
+				boolean[] overlapping = repeatIntervals.classify(regions.getStart(r), regions.getStop(r) + 1,
+						familyMapping, repeatFamilies.size());
+				for (int i = 0; i < overlapping.length; i++)
+					if (overlapping[i]) {
+						sortedSizes[i].add(regions.getSize(r));
+						nonRepetetive = false;
+					}
 
 				if (nonRepetetive)
-					sizesNonRepetetive.add(r.getSize());
+					sizesNonRepetetive.add(regions.getSize(r));
 			}
 		}
 
@@ -371,28 +427,9 @@ public class CoverageAnalysis {
 	public static HashMap<String, ArrayList<Region>> getSortedRegions(ArrayList<Alignment> alignments, double threshold,
 			int minSize, int maxSize) {
 		ArrayList<Region> regions = CoverageAnalysis.getCoveredRegions(alignments, threshold, minSize, maxSize);
-		HashMap<String, ArrayList<Region>> sortedRegions = new HashMap<String, ArrayList<Region>>(100);
-
-		sortedRegions.put("mixed", new ArrayList<Region>(regions.size()));
-		sortedRegions.put("nonRepeat", new ArrayList<Region>(regions.size()));
-
-		for (Region r : regions) {
-			Annotation annotation = new Annotation(r.getChromosome(), r.getStart(), r.getStop());
-			TreeSet<String> repFams = new TreeSet<String>();
-
-			for (Repeat rep : annotation.getRepeats())
-				repFams.add(rep.getRepFamily());
-
-			if (repFams.size() == 1) {
-				if (!sortedRegions.containsKey(repFams.first()))
-					sortedRegions.put(repFams.first(), new ArrayList<Region>(regions.size()));
-				sortedRegions.get(repFams.first()).add(r);
-			} else if (repFams.size() > 1)
-				sortedRegions.get("mixed").add(r);
-			else
-				sortedRegions.get("nonRepeat").add(r);
-		}
-		return sortedRegions;
+
+		// one sweep per chromosome over the regions (sorted by position) and the cached repeat annotation
+		return BulkAnnotator.sortRegions(regions);
 	}
 
 	/**
@@ -441,89 +478,30 @@ public class CoverageAnalysis {
 		System.out.println("Starting region size evaluation...");
 		ArrayList<Region> regions = new ArrayList<Region>(1000000);
 
-		double coverageTotal = 0;
-		double coverageRegions = 0;
-
-		for (String chromosome : genome.getChromosomeNames()) {
-			if (chromosome.equals("Y") || chromosome.equals("MT")) // exclude Y chromosome and mitochondrium
-				continue;
-			System.out.println("Chromosome: " + chromosome);
-
-			float[] meanNormalizedCoverage = new float[genome.getChromosomeSize(chromosome)];
-
-			for (Alignment alignment : alignments) {
-				try {
-					ParallelArrayAdder.add(meanNormalizedCoverage, alignment.getNormalizedCoverage(chromosome));
-				} catch (InterruptedException e) {
-					e.printStackTrace();
-				}
-			}
-
-			// divide through number of samples
-			for (int i = 0; i < meanNormalizedCoverage.length; i++)
-				meanNormalizedCoverage[i] /= alignments.size();
-
-			// scan coverage
-			int regionStart = -1;
-
-			for (int i = 0; i < meanNormalizedCoverage.length; i++) {
-				if (regionStart < 0 && meanNormalizedCoverage[i] >= threshold)
-					regionStart = i;
-				else if (regionStart >= 0 && meanNormalizedCoverage[i] < threshold) {
-					if ((i - regionStart) >= minSize && (i - regionStart) <= maxSize)
-						regions.add(new Region(chromosome, regionStart, i - 1));
-					regionStart = -1;
-				}
-				if (regionStart >= 0)
-					coverageRegions += meanNormalizedCoverage[i];
-				coverageTotal += meanNormalizedCoverage[i];
-			}
-		}
-		System.out.println((100.0 * coverageRegions / coverageTotal) + "% of total coverage attributed to regions.");
+		// chromosomes are processed in parallel, results and coverage sums are merged in chromosome order
+		RegionSweep sweep = RegionDetector.sweep(alignments, RegionDetector.getAutosomesAndX(genome),
+				new double[] { threshold }, new int[] { minSize }, new int[] { maxSize }, true);
+		regions.addAll(sweep.getRegions(0, 0).toList());
+		System.out.println(sweep.getAttributedPercentage(0) + "% of total coverage attributed to regions.");
 
 		return regions;
 	}
-	
+
 	/**
+	 * Detects the regions of a single chromosome (from the persisted summary index of the cohort mean if set in
+	 * config, see Config.summaryIndex)
 	 * @param alignments list of alignments
 	 * @param chromosome name of the chromosome
 	 * @param threshold threshold for coverage interpretation
 	 * @param minSize minimum size for a region classified as covered
 	 * @param maxSize maximum size for a region classified as covered
-	 * @return a list of regions interpreted as covered (average coverage of alignments) for a specified chromosome
+	 * @return a list of regions interpreted as covered (average coverage of alignments)
 	 */
-	private static ArrayList<Region> getCoveredRegionsForChromosome(ArrayList<Alignment> alignments, String chromosome,
+	public static ArrayList<Region> getCoveredRegionsForChromosome(ArrayList<Alignment> alignments, String chromosome,
 			double threshold, int minSize, int maxSize) {
-		Genome genome = alignments.get(0).getGenome();
-		ArrayList<Region> regions = new ArrayList<Region>(1000000);
-
-		float[] meanNormalizedCoverage = new float[genome.getChromosomeSize(chromosome)];
-
-		for (Alignment alignment : alignments) {
-			try {
-				ParallelArrayAdder.add(meanNormalizedCoverage, alignment.getNormalizedCoverage(chromosome));
-			} catch (InterruptedException e) {
-				e.printStackTrace();
-			}
-		}
-
-		// divide through number of samples
-		for (int i = 0; i < meanNormalizedCoverage.length; i++)
-			meanNormalizedCoverage[i] /= alignments.size();
-
-		// scan coverage
-		int regionStart = -1;
-
-		for (int i = 0; i < meanNormalizedCoverage.length; i++) {
-			if (regionStart < 0 && meanNormalizedCoverage[i] >= threshold)
-				regionStart = i;
-			else if (regionStart >= 0 && meanNormalizedCoverage[i] < threshold) {
-				if ((i - regionStart) >= minSize && (i - regionStart) <= maxSize)
-					regions.add(new Region(chromosome, regionStart, i - 1));
-				regionStart = -1;
-			}
-		}
-		return regions;
+		ArrayList<String> chromosomes = new ArrayList<String>(1);
+		chromosomes.add(chromosome);
+		return RegionDetector.detect(alignments, chromosomes, threshold, minSize, maxSize, false).get(0).getRegions();
 	}
 
 	/**
@@ -544,28 +522,37 @@ public class CoverageAnalysis {
 		Annotation annotation = new Annotation(chromosome, start - 1, stop - 1); // zero based
 
 		float[][] data = new float[alignments.size()][stop - start + 1];
-		float[] mean = new float[stop - start + 1];
-		float[] variance = new float[stop - start + 1];
-
-		for (int i = 0; i < alignments.size(); i++) {
-			float[] normalizedCoverage = alignments.get(i).getNormalizedCoverage(chromosome);
 
-			for (int p = start - 1; p < stop; p++)
-				data[i][p - start + 1] = normalizedCoverage[p];
-
-			for (int p = 0; p < mean.length; p++)
-				mean[p] += data[i][p];
+		// read only the plotted range of each alignment
+		try {
+			MultiCoverageCursor cursor = new MultiCoverageCursor(alignments, chromosome, true,
+					CoverageCursor.DEFAULT_CHUNK_SIZE, start - 1, stop);
+
+			while (cursor.next())
+				for (int i = 0; i < alignments.size(); i++)
+					System.arraycopy(cursor.getFloatChunk(i), 0, data[i], cursor.getChunkStart() - start + 1,
+							cursor.getChunkLength());
+			cursor.close();
+		} catch (IOException e) {
+			System.out.println("ERROR reading covN files for " + chromosome);
+			e.printStackTrace();
 		}
 
-		for (int p = 0; p < mean.length; p++)
-			mean[p] /= alignments.size();
-
-		for (int i = 0; i < data.length; i++)
-			for (int p = 0; p < variance.length; p++)
-				variance[p] += (data[i][p] - mean[p]) * (data[i][p] - mean[p]);
+		return CoverageAnalysis.plotRegion(start, stop, annotation, data);
+	}
 
-		for (int p = 0; p < variance.length; p++)
-			variance[p] = (float) Math.sqrt(variance[p] / alignments.size());
+	/**
+	 * @param start start coordinate of the region (one based)
+	 * @param stop stop coordinate of the region (one based)
+	 * @param annotation annotation of the region
+	 * @param data normalized coverage of the region for each alignment
+	 * @return a JFreeChart of a coverage plot for the normalized average coverage of the region
+	 */
+	private static JFreeChart plotRegion(int start, int stop, Annotation annotation, float[][] data) {
+		// mean and standard deviation in one pass
+		CohortStatistics statistics = CohortReducer.reduce(data, Float.POSITIVE_INFINITY, true);
+		float[] mean = statistics.getMean();
+		float[] variance = statistics.getStandardDeviation();
 
 		// prepare dataset
 		YIntervalSeries series = new YIntervalSeries("normalized coverage");
@@ -711,11 +698,59 @@ public class CoverageAnalysis {
 	 * @param alignments list of alignments
 	 */
 	public static void plotAll(ArrayList<Region> regions, ArrayList<Alignment> alignments) {
+		// annotation and coverage of the next regions are fetched concurrently, plots are rendered in order
+		LinkedList<CompletableFuture<Annotation>> annotations = new LinkedList<CompletableFuture<Annotation>>();
+		LinkedList<CompletableFuture<float[][]>> data = new LinkedList<CompletableFuture<float[][]>>();
+		int fetched = 0;
+
+		for (int i = 0; i < regions.size(); i++) {
+			for (; fetched < regions.size() && fetched < i + CoverageAnalysis.PLOT_PREFETCH; fetched++) {
+				Region r = regions.get(fetched);
+				annotations.add(Annotation.retrieveAnnotationAsync(r.getChromosome(), r.getStart(), r.getStop()));
+				data.add(CoverageAnalysis.getRegionCoverageAsync(alignments, r.getChromosome(), r.getStart(),
+						r.getStop() + 1));
+			}
 
-		for (Region r : regions)
-			SVGBuilder.saveSVG(
-					CoverageAnalysis.plotRegion(r.getChromosome(), r.getStart() + 1, r.getStop() + 1, alignments),
-					r.getName());
+			Region r = regions.get(i);
+			float[][] regionData;
+			try {
+				regionData = data.poll().join();
+			} catch (CompletionException e) {
+				System.out.println("ERROR reading covN files for " + r.getChromosome());
+				e.getCause().printStackTrace();
+				regionData = new float[alignments.size()][r.getStop() - r.getStart() + 1];
+			}
+
+			SVGBuilder.saveSVG(CoverageAnalysis.plotRegion(r.getStart() + 1, r.getStop() + 1,
+					annotations.poll().join(), regionData), r.getName());
+		}
+	}
+
+	/**
+	 * Reads the normalized coverage of a range for all alignments concurrently on the I/O executor
+	 * @param alignments list of alignments
+	 * @param chromosome name of the chromosome
+	 * @param from first position (zero based, inclusive)
+	 * @param to last position (zero based, exclusive)
+	 * @return future of the normalized coverage of the range for each alignment
+	 */
+	private static CompletableFuture<float[][]> getRegionCoverageAsync(ArrayList<Alignment> alignments,
+			String chromosome, int from, int to) {
+		final ArrayList<CompletableFuture<float[]>> coverages = new ArrayList<CompletableFuture<float[]>>(
+				alignments.size());
+		for (Alignment alignment : alignments)
+			coverages.add(alignment.getNormalizedCoverageAsync(chromosome, from, to));
+
+		return CompletableFuture.allOf(coverages.toArray(new CompletableFuture<?>[coverages.size()]))
+				.thenApply(new Function<Void, float[][]>() {
+					@Override
+					public float[][] apply(Void v) {
+						float[][] data = new float[coverages.size()][];
+						for (int i = 0; i < data.length; i++)
+							data[i] = coverages.get(i).join();
+						return data;
+					}
+				});
 	}
 
 	/**
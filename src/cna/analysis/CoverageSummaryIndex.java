@@ -0,0 +1,379 @@
+package cna.analysis;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+
+import cna.data.Alignment;
+import cna.data.MeanCoverageCursor;
+import cna.parallel.SampleParallelReducer;
+import net.jpountz.lz4.LZ4Compressor;
+import net.jpountz.lz4.LZ4Factory;
+import net.jpountz.lz4.LZ4FastDecompressor;
+
+/**
+ * Persisted summary tree over the mean normalized coverage of a cohort of alignments for one chromosome. The mean is
+ * stored in LZ4 compressed leaf blocks together with the maximum, minimum and sum of each leaf; coarser levels
+ * (FANOUT leaves per node) are derived when the index is loaded. Threshold queries skip every node whose maximum is
+ * below threshold, take every node whose minimum is at or above threshold as covered and only decompress leaves
+ * crossing the threshold. Region boundaries equal those of a full scan, coverage sums of covered nodes are summed per
+ * node and may differ from a full scan in the last digits.
+ * @author Stefan Grabuschnig
+ *
+ */
+public class CoverageSummaryIndex {
+
+	/**
+	 * number of positions per leaf block
+	 */
+	public static final int LEAF_SIZE = 1 << 12;
+
+	private static final int FANOUT_SHIFT = 4; // 16 children per node
+	private static final int BUILD_CHUNK_SIZE = 1 << 16; // multiple of LEAF_SIZE
+	private static final int MAGIC = 0x43534958;
+	private static final int VERSION = 1;
+
+	private File file;
+	private int chromosomeSize;
+	private double coverageTotal;
+	private long[] offsets;
+	private int[] compressedLengths;
+
+	// [level][node], level 0 are the leaves
+	private float[][] max;
+	private float[][] min;
+	private double[][] sum;
+
+	private CoverageSummaryIndex(File file) throws IOException {
+		this.file = file;
+
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		try {
+			if (in.readInt() != CoverageSummaryIndex.MAGIC || in.readInt() != CoverageSummaryIndex.VERSION
+					|| in.readInt() != CoverageSummaryIndex.LEAF_SIZE)
+				throw new IOException(file + " is not a coverage summary index");
+			this.chromosomeSize = in.readInt();
+			int numberOfLeaves = in.readInt();
+			this.coverageTotal = in.readDouble();
+			in.seek(in.readLong());
+
+			// leaf table
+			DataInputStream table = new DataInputStream(
+					new BufferedInputStream(Channels.newInputStream(in.getChannel())));
+			ArrayList<float[]> max = new ArrayList<float[]>();
+			ArrayList<float[]> min = new ArrayList<float[]>();
+			ArrayList<double[]> sum = new ArrayList<double[]>();
+			max.add(new float[numberOfLeaves]);
+			min.add(new float[numberOfLeaves]);
+			sum.add(new double[numberOfLeaves]);
+			this.offsets = new long[numberOfLeaves];
+			this.compressedLengths = new int[numberOfLeaves];
+			for (int i = 0; i < numberOfLeaves; i++) {
+				max.get(0)[i] = table.readFloat();
+				min.get(0)[i] = table.readFloat();
+				sum.get(0)[i] = table.readDouble();
+				this.offsets[i] = table.readLong();
+				this.compressedLengths[i] = table.readInt();
+			}
+
+			// coarser levels
+			while (max.get(max.size() - 1).length > 1) {
+				float[] childMax = max.get(max.size() - 1);
+				float[] childMin = min.get(min.size() - 1);
+				double[] childSum = sum.get(sum.size() - 1);
+				int numberOfNodes = ((childMax.length - 1) >> CoverageSummaryIndex.FANOUT_SHIFT) + 1;
+				float[] levelMax = new float[numberOfNodes];
+				float[] levelMin = new float[numberOfNodes];
+				double[] levelSum = new double[numberOfNodes];
+				for (int node = 0; node < numberOfNodes; node++) {
+					int from = node << CoverageSummaryIndex.FANOUT_SHIFT;
+					int to = Math.min(from + (1 << CoverageSummaryIndex.FANOUT_SHIFT), childMax.length);
+					levelMax[node] = childMax[from];
+					levelMin[node] = childMin[from];
+					for (int child = from; child < to; child++) {
+						levelMax[node] = Math.max(levelMax[node], childMax[child]);
+						levelMin[node] = Math.min(levelMin[node], childMin[child]);
+						levelSum[node] += childSum[child];
+					}
+				}
+				max.add(levelMax);
+				min.add(levelMin);
+				sum.add(levelSum);
+			}
+			this.max = max.toArray(new float[max.size()][]);
+			this.min = min.toArray(new float[min.size()][]);
+			this.sum = sum.toArray(new double[sum.size()][]);
+		} finally {
+			in.close();
+		}
+	}
+
+	/**
+	 * Loads the index of a chromosome, builds it first if it does not exist or is older than any coverage file
+	 * @param alignments list of alignments (the cohort, in order)
+	 * @param chromosome name of the chromosome
+	 * @param streaming build from the mean streamed block-wise (true) or from the materialized mean (false)
+	 * @param degreeOfParallelism number of workers summing the materialized mean (see SampleParallelReducer)
+	 * @return the summary index
+	 * @throws IOException if a coverage file or the index cannot be read or written
+	 */
+	public static CoverageSummaryIndex open(ArrayList<Alignment> alignments, String chromosome, boolean streaming,
+			int degreeOfParallelism) throws IOException {
+		File file = CoverageSummaryIndex.getFile(alignments, chromosome);
+		if (!CoverageSummaryIndex.isCurrent(alignments, chromosome))
+			CoverageSummaryIndex.build(alignments, chromosome, file, streaming, degreeOfParallelism);
+		return new CoverageSummaryIndex(file);
+	}
+
+	/**
+	 * @param alignments list of alignments (the cohort, in order)
+	 * @param chromosome name of the chromosome
+	 * @return true if the index exists and is not older than any coverage file
+	 */
+	public static boolean isCurrent(ArrayList<Alignment> alignments, String chromosome) {
+		File file = CoverageSummaryIndex.getFile(alignments, chromosome);
+		if (!file.exists())
+			return false;
+		for (Alignment alignment : alignments)
+			if (alignment.getNormalizedCoverageFile(chromosome).lastModified() > file.lastModified())
+				return false;
+		return true;
+	}
+
+	/**
+	 * @param alignments list of alignments (the cohort, in order)
+	 * @param chromosome name of the chromosome
+	 * @return the index file of the cohort and chromosome
+	 */
+	public static File getFile(ArrayList<Alignment> alignments, String chromosome) {
+		return new File("summary" + File.separator + CoverageSummaryIndex.getCohortKey(alignments) + File.separator
+				+ chromosome + ".csi");
+	}
+
+	private static String getCohortKey(ArrayList<Alignment> alignments) {
+		// the mean is summed in order of the alignments, so the order is part of the key
+		StringBuilder cohort = new StringBuilder(cna.config.Config.fragmentsOnly ? "fo" : "all");
+		for (Alignment alignment : alignments)
+			cohort.append('\n').append(alignment.getIndividual().getLabel().getName()).append(File.separator)
+					.append(alignment.getIndividual().getID()).append(File.separator).append(alignment.getID());
+
+		try {
+			StringBuilder key = new StringBuilder();
+			byte[] digest = MessageDigest.getInstance("SHA-1")
+					.digest(cohort.toString().getBytes(StandardCharsets.UTF_8));
+			for (int i = 0; i < 8; i++)
+				key.append(String.format("%02x", digest[i]));
+			return key.toString();
+		} catch (NoSuchAlgorithmException e) {
+			System.out.println("ERROR SHA-1 not supported");
+			e.printStackTrace();
+			System.exit(0);
+		}
+		return null;
+	}
+
+	private static void build(ArrayList<Alignment> alignments, String chromosome, File file, boolean streaming,
+			int degreeOfParallelism) throws IOException {
+		file.getParentFile().mkdirs();
+		File temporary = new File(file.getPath() + "." + Thread.currentThread().getId() + ".tmp");
+
+		Writer writer = new Writer(temporary);
+		try {
+			if (streaming) {
+				MeanCoverageCursor cursor = new MeanCoverageCursor(alignments, chromosome,
+						CoverageSummaryIndex.BUILD_CHUNK_SIZE);
+				try {
+					while (cursor.next())
+						writer.add(cursor.getMeanChunk(), 0, cursor.getChunkLength());
+				} finally {
+					cursor.close();
+				}
+			} else {
+				// summed like the region detection (in order of the alignments with a single worker)
+				float[] mean = SampleParallelReducer.meanNormalizedCoverage(alignments, chromosome,
+						degreeOfParallelism);
+				for (int from = 0; from < mean.length; from += CoverageSummaryIndex.BUILD_CHUNK_SIZE)
+					writer.add(mean, from, Math.min(CoverageSummaryIndex.BUILD_CHUNK_SIZE, mean.length - from));
+			}
+			writer.finish();
+		} finally {
+			writer.close();
+		}
+		Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	/**
+	 * Drives a region scanner over the chromosome, descending only into nodes crossing its threshold
+	 * @param scanner region scanner of the chromosome
+	 * @throws IOException if the index cannot be read
+	 */
+	public void scan(RegionScanner scanner) throws IOException {
+		if (this.offsets.length == 0)
+			return;
+
+		LeafReader reader = new LeafReader(this.file);
+		try {
+			this.visit(this.max.length - 1, 0, scanner, reader);
+		} finally {
+			reader.close();
+		}
+	}
+
+	private void visit(int level, int node, RegionScanner scanner, LeafReader reader) throws IOException {
+		int position = (node << (level * CoverageSummaryIndex.FANOUT_SHIFT)) * CoverageSummaryIndex.LEAF_SIZE;
+
+		if (this.max[level][node] < scanner.getThreshold())
+			scanner.skip(position);
+		else if (this.min[level][node] >= scanner.getThreshold())
+			scanner.cover(position, this.sum[level][node]);
+		else if (level == 0) {
+			int length = Math.min(CoverageSummaryIndex.LEAF_SIZE, this.chromosomeSize - position);
+			scanner.scan(reader.read(this.offsets[node], this.compressedLengths[node], length), 0, length, position);
+		} else {
+			int from = node << CoverageSummaryIndex.FANOUT_SHIFT;
+			int to = Math.min(from + (1 << CoverageSummaryIndex.FANOUT_SHIFT), this.max[level - 1].length);
+			for (int child = from; child < to; child++)
+				this.visit(level - 1, child, scanner, reader);
+		}
+	}
+
+	/**
+	 * @return the size of the chromosome
+	 */
+	public int getChromosomeSize() {
+		return this.chromosomeSize;
+	}
+
+	/**
+	 * @return the sum of the mean coverage of the chromosome (summed in order of position)
+	 */
+	public double getCoverageTotal() {
+		return this.coverageTotal;
+	}
+
+	/**
+	 * Writes leaf blocks followed by the leaf table and patches the header when finished
+	 */
+	private static class Writer {
+		private static final int HEADER_SIZE = 5 * 4 + 8 + 8;
+
+		private final LZ4Compressor compressor = LZ4Factory.fastestInstance().fastCompressor();
+		private File file;
+		private DataOutputStream out;
+		private byte[] raw = new byte[4 * CoverageSummaryIndex.LEAF_SIZE];
+		private byte[] compressed = new byte[this.compressor.maxCompressedLength(this.raw.length)];
+		private long offset = Writer.HEADER_SIZE;
+		private int chromosomeSize = 0;
+		private double coverageTotal = 0;
+
+		private ArrayList<float[]> leafRange = new ArrayList<float[]>(); // max, min
+		private ArrayList<Double> leafSum = new ArrayList<Double>();
+		private ArrayList<long[]> leafLocation = new ArrayList<long[]>(); // offset, compressed length
+
+		private Writer(File file) throws IOException {
+			this.file = file;
+			this.out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file)));
+			this.out.write(new byte[Writer.HEADER_SIZE]);
+		}
+
+		// blocks have to start at multiples of LEAF_SIZE
+		private void add(float[] values, int offset, int length) throws IOException {
+			for (int from = 0; from < length; from += CoverageSummaryIndex.LEAF_SIZE)
+				this.addLeaf(values, offset + from, Math.min(CoverageSummaryIndex.LEAF_SIZE, length - from));
+		}
+
+		private void addLeaf(float[] values, int offset, int length) throws IOException {
+			float max = values[offset];
+			float min = values[offset];
+			double sum = 0;
+			for (int p = offset; p < offset + length; p++) {
+				max = Math.max(max, values[p]);
+				min = Math.min(min, values[p]);
+				sum += values[p];
+				this.coverageTotal += values[p];
+			}
+
+			ByteBuffer.wrap(this.raw).asFloatBuffer().put(values, offset, length);
+			int compressedLength = this.compressor.compress(this.raw, 0, 4 * length, this.compressed, 0,
+					this.compressed.length);
+			this.out.write(this.compressed, 0, compressedLength);
+
+			this.leafRange.add(new float[] { max, min });
+			this.leafSum.add(sum);
+			this.leafLocation.add(new long[] { this.offset, compressedLength });
+			this.offset += compressedLength;
+			this.chromosomeSize += length;
+		}
+
+		private void finish() throws IOException {
+			for (int i = 0; i < this.leafRange.size(); i++) {
+				this.out.writeFloat(this.leafRange.get(i)[0]);
+				this.out.writeFloat(this.leafRange.get(i)[1]);
+				this.out.writeDouble(this.leafSum.get(i));
+				this.out.writeLong(this.leafLocation.get(i)[0]);
+				this.out.writeInt((int) this.leafLocation.get(i)[1]);
+			}
+			this.out.close();
+
+			RandomAccessFile header = new RandomAccessFile(this.file, "rw");
+			try {
+				header.writeInt(CoverageSummaryIndex.MAGIC);
+				header.writeInt(CoverageSummaryIndex.VERSION);
+				header.writeInt(CoverageSummaryIndex.LEAF_SIZE);
+				header.writeInt(this.chromosomeSize);
+				header.writeInt(this.leafRange.size());
+				header.writeDouble(this.coverageTotal);
+				header.writeLong(this.offset);
+			} finally {
+				header.close();
+			}
+		}
+
+		private void close() throws IOException {
+			this.out.close();
+		}
+	}
+
+	/**
+	 * Reads and decompresses single leaf blocks
+	 */
+	private static class LeafReader {
+		private final LZ4FastDecompressor decompressor = LZ4Factory.fastestInstance().fastDecompressor();
+		private RandomAccessFile in;
+		private byte[] compressed = new byte[0];
+		private byte[] raw = new byte[4 * CoverageSummaryIndex.LEAF_SIZE];
+		private float[] values = new float[CoverageSummaryIndex.LEAF_SIZE];
+
+		private LeafReader(File file) throws IOException {
+			this.in = new RandomAccessFile(file, "r");
+		}
+
+		private float[] read(long offset, int compressedLength, int length) throws IOException {
+			if (this.compressed.length < compressedLength)
+				this.compressed = new byte[compressedLength];
+			this.in.seek(offset);
+			this.in.readFully(this.compressed, 0, compressedLength);
+			this.decompressor.decompress(this.compressed, 0, this.raw, 0, 4 * length);
+			ByteBuffer.wrap(this.raw).asFloatBuffer().get(this.values, 0, length);
+			return this.values;
+		}
+
+		private void close() throws IOException {
+			this.in.close();
+		}
+	}
+}
@@ -0,0 +1,233 @@
+package cna.analysis;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.LinkedList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+
+import cna.data.Alignment;
+import cna.data.Genome;
+import cna.data.RepeatIntervalIndex;
+import cna.data.RepeatLevel;
+import cna.data.RepeatMaskProvider;
+import cna.parallel.ExecutionRuntime.WorkloadClass;
+import cna.parallel.TaskScope;
+
+/**
+ * Provides functionality to analyze the composition of alignments in terms of fragments (instead of covered bases)
+ * overlapping repeat families. Fragments of a chromosome are sorted by start and merge-joined with the repeat
+ * intervals (sorted by start) in one sweep, neither repeat masks nor per-base arrays are needed. Positions are
+ * labeled like in CompositionAnalysis: the considered families annotated at a position share it, other repeats only
+ * count where no considered family is annotated.
+ * @author Stefan Grabuschnig
+ *
+ */
+public class FragmentCompositionAnalysis {
+
+	/**
+	 * how a fragment is assigned to repeat families
+	 */
+	public enum Counting {
+		/** the fragment counts for the families annotated at its midpoint */
+		MIDPOINT,
+		/** the fragment is divided among the families by the fraction of its bases they cover */
+		OVERLAP
+	}
+
+	/**
+	 * @param alignments list of alignments
+	 * @param repeatFamilies names of considered repeat families
+	 * @param counting assignment of fragments to repeat families
+	 * @return a hashmap containing the share of fragments per repeat family, other repeats and non repetitive of all
+	 *         alignments as double arrays
+	 */
+	public static LinkedHashMap<String, ArrayList<double[]>> calculateFragmentCompositions(
+			LinkedHashMap<String, ArrayList<Alignment>> alignments, LinkedList<String> repeatFamilies,
+			Counting counting) {
+		return FragmentCompositionAnalysis.calculateFragmentCompositions(alignments, RepeatLevel.FAMILY,
+				repeatFamilies, counting);
+	}
+
+	/**
+	 * Calculates the share of fragments per considered repeat class, family or name. Partial counts of every
+	 * alignment and chromosome are computed concurrently and reduced in chromosome order.
+	 * @param alignments list of alignments
+	 * @param level level of the repeat hierarchy
+	 * @param repeatFamilies names of considered repeat classes, families or names (depending on level)
+	 * @param counting assignment of fragments to repeat families
+	 * @return a hashmap containing the share of fragments per repeat family, other repeats and non repetitive of all
+	 *         alignments as double arrays
+	 */
+	public static LinkedHashMap<String, ArrayList<double[]>> calculateFragmentCompositions(
+			LinkedHashMap<String, ArrayList<Alignment>> alignments, RepeatLevel level,
+			LinkedList<String> repeatFamilies, final Counting counting) {
+
+		Genome genome = alignments.get(alignments.keySet().iterator().next()).get(0).getGenome();
+		ArrayList<String> chromosomes = RegionDetector.getAutosomesAndX(genome);
+		final int numberOfFamilies = repeatFamilies.size();
+
+		// init results datastructure
+		LinkedHashMap<String, ArrayList<double[]>> results = new LinkedHashMap<String, ArrayList<double[]>>();
+		for (String key : alignments.keySet()) {
+			ArrayList<double[]> res = new ArrayList<double[]>(alignments.get(key).size());
+			for (int i = 0; i < alignments.get(key).size(); i++)
+				res.add(new double[numberOfFamilies + 2]);
+			results.put(key, res);
+		}
+
+		try (TaskScope<double[]> scope = new TaskScope<double[]>(WorkloadClass.IO)) {
+			ArrayList<Future<double[]>> futures = new ArrayList<Future<double[]>>();
+
+			// one task per chromosome and alignment
+			for (int c = 0; c < chromosomes.size(); c++) {
+				final String chromosome = chromosomes.get(c);
+				final RepeatIntervalIndex intervals = RepeatMaskProvider.getRepeatIntervals(chromosome);
+				final int[] mapping = intervals.getMapping(level, repeatFamilies);
+				final int[] categories = FragmentCompositionAnalysis.getCategories(intervals, level);
+				for (String key : alignments.keySet())
+					for (final Alignment alignment : alignments.get(key))
+						futures.add(scope.fork(new Callable<double[]>() {
+							@Override
+							public double[] call() {
+								return FragmentCompositionAnalysis.countFragments(alignment.getFragments(chromosome),
+										intervals, categories, mapping, numberOfFamilies, counting);
+							}
+						}));
+			}
+
+			// reduce in order of forking
+			int task = 0;
+			for (int c = 0; c < chromosomes.size(); c++)
+				for (String key : alignments.keySet())
+					for (double[] composition : results.get(key)) {
+						double[] partial = futures.get(task++).get();
+						for (int i = 0; i < composition.length; i++)
+							composition[i] += partial[i];
+					}
+		} catch (ExecutionException e) {
+			System.out.println("ERROR reading fragments files");
+			e.getCause().printStackTrace();
+			System.exit(0);
+		} catch (InterruptedException e) {
+			System.out.println("Fragment composition analysis interrupted");
+			e.printStackTrace();
+			System.exit(0);
+		}
+
+		// every fragment counts once
+		for (String key : results.keySet())
+			for (double[] composition : results.get(key)) {
+				double sum = 0.0d;
+				for (int i = 0; i < composition.length; i++)
+					sum += composition[i];
+				for (int i = 0; i < composition.length; i++)
+					composition[i] /= sum;
+			}
+		return results;
+	}
+
+	// class, family or name id of every interval
+	private static int[] getCategories(RepeatIntervalIndex intervals, RepeatLevel level) {
+		int[] categories = new int[intervals.size()];
+		for (int i = 0; i < categories.length; i++)
+			categories[i] = intervals.getCategory(level, i);
+		return categories;
+	}
+
+	// sweeps the counted ranges of the fragments (sorted by start) over the repeat intervals, intervals become active
+	// when they start before the end of the current range and are dropped once they end before its start
+	private static double[] countFragments(int[] fragments, RepeatIntervalIndex intervals, int[] categories,
+			int[] mapping, int numberOfFamilies, Counting counting) {
+		double[] counts = new double[numberOfFamilies + 2];
+
+		// start in the upper, exclusive end in the lower 32 bits (the midpoint or the whole fragment)
+		long[] ranges = new long[fragments.length / 2];
+		for (int i = 0; i < ranges.length; i++) {
+			int from = fragments[2 * i];
+			int to = fragments[2 * i + 1] + 1; // fragment ends are inclusive
+			if (counting == Counting.MIDPOINT) {
+				from = (from + to - 1) >>> 1;
+				to = from + 1;
+			}
+			ranges[i] = ((long) from << 32) | to;
+		}
+		Arrays.sort(ranges);
+
+		int[] active = new int[16];
+		int numberOfActive = 0;
+		int next = 0;
+		int[] boundaries = new int[34];
+		int[] present = new int[numberOfFamilies]; // stamp of the last piece per considered family
+		int stamp = 0;
+
+		for (long range : ranges) {
+			int from = (int) (range >>> 32);
+			int to = (int) range;
+
+			// drop intervals ending before the range, add intervals starting before its end
+			int kept = 0;
+			for (int a = 0; a < numberOfActive; a++)
+				if (intervals.getEnd(active[a]) > from)
+					active[kept++] = active[a];
+			numberOfActive = kept;
+			for (; next < intervals.size() && intervals.getStart(next) < to; next++)
+				if (intervals.getEnd(next) > from) {
+					if (numberOfActive == active.length)
+						active = Arrays.copyOf(active, 2 * numberOfActive);
+					active[numberOfActive++] = next;
+				}
+
+			// pieces of the range between interval boundaries
+			if (boundaries.length < 2 * numberOfActive + 2)
+				boundaries = new int[2 * (2 * numberOfActive + 2)];
+			int numberOfBoundaries = 0;
+			boundaries[numberOfBoundaries++] = from;
+			boundaries[numberOfBoundaries++] = to;
+			for (int a = 0; a < numberOfActive; a++) {
+				int start = intervals.getStart(active[a]);
+				int end = intervals.getEnd(active[a]);
+				if (start > from && start < to)
+					boundaries[numberOfBoundaries++] = start;
+				if (end > from && end < to)
+					boundaries[numberOfBoundaries++] = end;
+			}
+			Arrays.sort(boundaries, 0, numberOfBoundaries);
+
+			double length = to - from;
+			for (int b = 0; b + 1 < numberOfBoundaries; b++) {
+				int position = boundaries[b];
+				if (boundaries[b + 1] == position)
+					continue;
+				double share = (boundaries[b + 1] - position) / length;
+
+				// considered families annotated at the piece, other repeats only if none of them is
+				stamp++;
+				int numberOfLabels = 0;
+				boolean other = false;
+				for (int a = 0; a < numberOfActive; a++)
+					if (intervals.getStart(active[a]) <= position && intervals.getEnd(active[a]) > position) {
+						int family = mapping[categories[active[a]]];
+						if (family == numberOfFamilies)
+							other = true;
+						else if (present[family] != stamp) {
+							present[family] = stamp;
+							numberOfLabels++;
+						}
+					}
+
+				if (numberOfLabels > 0) {
+					for (int f = 0; f < numberOfFamilies; f++)
+						if (present[f] == stamp)
+							counts[f] += share / numberOfLabels;
+				} else if (other)
+					counts[numberOfFamilies] += share;
+				else
+					counts[numberOfFamilies + 1] += share;
+			}
+		}
+		return counts;
+	}
+}
@@ -6,6 +6,7 @@ import java.util.TreeSet;
 import org.jfree.chart.JFreeChart;
 
 import cna.data.Alignment;
+import cna.data.AlignmentStatistics;
 import cna.data.Region;
 import cna.util.HistogramBuilder;
 import cna.util.SVGBuilder;
@@ -58,26 +59,28 @@ public class FragmentSizeAnalysis {
 	 * @param title name of the svg file
 	 * @param alignments list of alignments
 	 */
-	public static void plotFragmentSize(String title, ArrayList<Alignment> alignments) {		
-		ArrayList<Integer> sizes = new ArrayList<Integer>(500000000);
+	public static void plotFragmentSize(String title, ArrayList<Alignment> alignments) {
+		// number of fragments is known from the alignment statistics
+		int numberOfFragments = 0;
+		for (Alignment alignment : alignments) {
+			AlignmentStatistics statistics = alignment.getStatistics();
+			for (String chromosome : statistics.getChromosomeNames())
+				numberOfFragments += statistics.getFragmentCount(chromosome);
+		}
+
+		System.out.println(numberOfFragments);
+
+		double[] values = new double[numberOfFragments];
+		int index = 0;
 
 		for (String chromosome : alignments.get(0).getGenome().getChromosomeNames())
 			for (Alignment alignment : alignments) {
 				int[] fragments = alignment.getFragments(chromosome);
 
 				for (int i = 0; i < fragments.length; i += 2)
-					sizes.add(Integer.valueOf(fragments[i + 1] - fragments[i] + 1));
+					values[index++] = fragments[i + 1] - fragments[i] + 1;
 			}
 
-		System.out.println(sizes.size());
-
-		double[] values = new double[sizes.size()];
-
-		System.out.println("prepare values");
-
-		for (int i = 0; i < values.length; i++)
-			values[i] = sizes.get(i).doubleValue();
-
 		System.out.println("Try to build histogram");
 		SVGBuilder.saveSVG(HistogramBuilder.createSizeHistogram(values, 100, true), title);
 
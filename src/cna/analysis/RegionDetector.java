@@ -0,0 +1,260 @@
+package cna.analysis;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+
+import cna.config.Config;
+import cna.data.Alignment;
+import cna.data.ChromosomeRegions;
+import cna.data.CoverageCursor;
+import cna.data.Genome;
+import cna.data.MeanCoverageCursor;
+import cna.data.RegionSweep;
+import cna.parallel.ExecutionRuntime.WorkloadClass;
+import cna.parallel.SampleParallelReducer;
+import cna.parallel.TaskScope;
+
+/**
+ * Provides functionality to detect regions interpreted as covered (average coverage of alignments) with chromosome
+ * level parallelism. Chromosomes are processed concurrently as long as their buffers fit into the memory budget. Each
+ * chromosome is either scanned block-wise while streaming all alignments (mean and threshold scan fused) or scanned
+ * on its materialized mean, whichever needs less memory. Alternatively, regions are queried from a persisted summary
+ * index of the cohort mean (see CoverageSummaryIndex). Several thresholds and size windows are evaluated in the
+ * same pass. The mean is summed in order of the alignments (unless Config.sampleParallelMean is set) and results and
+ * partial coverage sums are returned in chromosome order, so that merged results do not depend on the number of
+ * threads or the chosen path. Coverage sums are accumulated during the scan of each chromosome and added per
+ * chromosome, they may differ from a single sequential sum over all chromosomes in the last digits.
+ * @author Stefan Grabuschnig
+ *
+ */
+public class RegionDetector {
+
+	private static final int SCAN_CHUNK_SIZE = 1 << 16;
+
+	// granularity of memory reservations (1 MB)
+	private static final int MEMORY_UNIT_SHIFT = 20;
+
+	/**
+	 * @param alignments list of alignments
+	 * @param chromosomes names of the considered chromosomes
+	 * @param threshold threshold for coverage interpretation
+	 * @param minSize minimum size for a region classified as covered
+	 * @param maxSize maximum size for a region classified as covered
+	 * @param printProgress print the name of each chromosome (in chromosome order)
+	 * @return the regions interpreted as covered and partial coverage sums for each chromosome in chromosome order
+	 */
+	public static ArrayList<ChromosomeRegions> detect(ArrayList<Alignment> alignments, List<String> chromosomes,
+			double threshold, int minSize, int maxSize, boolean printProgress) {
+		ArrayList<ChromosomeRegions> results = new ArrayList<ChromosomeRegions>(chromosomes.size());
+		for (ChromosomeRegions[][] chromosomeRegions : RegionDetector.detect(alignments, chromosomes,
+				new double[] { threshold }, new int[] { minSize }, new int[] { maxSize }, Config.summaryIndex,
+				printProgress))
+			results.add(chromosomeRegions[0][0]);
+		return results;
+	}
+
+	/**
+	 * Detects regions for several thresholds and size windows in a single pass over the mean coverage of each
+	 * chromosome
+	 * @param alignments list of alignments
+	 * @param chromosomes names of the considered chromosomes
+	 * @param thresholds thresholds for coverage interpretation (sorted ascending by the sweep)
+	 * @param minSizes minimum sizes for a region classified as covered (one per size window)
+	 * @param maxSizes maximum sizes for a region classified as covered (one per size window)
+	 * @param printProgress print the name of each chromosome (in chromosome order)
+	 * @return the regions interpreted as covered and the coverage attributed to regions for each threshold and size
+	 *         window
+	 */
+	public static RegionSweep sweep(ArrayList<Alignment> alignments, List<String> chromosomes, double[] thresholds,
+			int[] minSizes, int[] maxSizes, boolean printProgress) {
+		thresholds = thresholds.clone();
+		Arrays.sort(thresholds);
+
+		RegionSweep sweep = new RegionSweep(thresholds, minSizes, maxSizes);
+		for (ChromosomeRegions[][] chromosomeRegions : RegionDetector.detect(alignments, chromosomes, thresholds,
+				minSizes, maxSizes, Config.summaryIndex, printProgress))
+			sweep.add(chromosomeRegions);
+		return sweep;
+	}
+
+	private static ArrayList<ChromosomeRegions[][]> detect(final ArrayList<Alignment> alignments,
+			List<String> chromosomes, final double[] thresholds, final int[] minSizes, final int[] maxSizes,
+			final boolean indexed, boolean printProgress) {
+		ArrayList<ChromosomeRegions[][]> results = new ArrayList<ChromosomeRegions[][]>(chromosomes.size());
+
+		// memory budget shared by all chromosomes
+		long budgetUnits = SampleParallelReducer.getMemoryBudget() >> RegionDetector.MEMORY_UNIT_SHIFT;
+		final int budget = (int) Math.max(1, Math.min(Integer.MAX_VALUE, budgetUnits));
+		final Semaphore memory = new Semaphore(budget, true);
+
+		try (TaskScope<ChromosomeRegions[][]> scope = new TaskScope<ChromosomeRegions[][]>(WorkloadClass.IO)) {
+			ArrayList<Future<ChromosomeRegions[][]>> futures = new ArrayList<Future<ChromosomeRegions[][]>>(
+					chromosomes.size());
+
+			for (final String chromosome : chromosomes)
+				futures.add(scope.fork(new Callable<ChromosomeRegions[][]>() {
+					@Override
+					public ChromosomeRegions[][] call() throws Exception {
+						return RegionDetector.detectForChromosome(alignments, chromosome, thresholds, minSizes,
+								maxSizes, indexed, memory, budget);
+					}
+				}));
+
+			for (int i = 0; i < futures.size(); i++) {
+				if (printProgress)
+					System.out.println("Chromosome: " + chromosomes.get(i));
+				results.add(futures.get(i).get());
+			}
+		} catch (ExecutionException e) {
+			System.out.println("ERROR reading covN files");
+			e.getCause().printStackTrace();
+			System.exit(0);
+		} catch (InterruptedException e) {
+			System.out.println("Region detection interrupted");
+			e.printStackTrace();
+			System.exit(0);
+		}
+		return results;
+	}
+
+	/**
+	 * @param genome the considered genome
+	 * @return names of all chromosomes except Y and MT
+	 */
+	public static ArrayList<String> getAutosomesAndX(Genome genome) {
+		ArrayList<String> chromosomes = new ArrayList<String>();
+		for (String chromosome : genome.getChromosomeNames())
+			if (!(chromosome.equals("Y") || chromosome.equals("MT"))) // exclude Y chromosome and mitochondrium
+				chromosomes.add(chromosome);
+		return chromosomes;
+	}
+
+	private static ChromosomeRegions[][] detectForChromosome(ArrayList<Alignment> alignments, String chromosome,
+			double[] thresholds, int[] minSizes, int[] maxSizes, boolean indexed, Semaphore memory, int budget)
+			throws Exception {
+		int chromosomeSize = alignments.get(0).getGenome().getChromosomeSize(chromosome);
+
+		// stream blocks of all alignments at once or materialize the mean, whichever needs less memory
+		long streamingSize = alignments.size() * CoverageCursor.DEFAULT_FOOTPRINT
+				+ 8L * RegionDetector.SCAN_CHUNK_SIZE;
+		long materializedSize = SampleParallelReducer.getBufferSize(chromosomeSize);
+		boolean streaming = streamingSize <= materializedSize;
+
+		RegionScanner[] scanners = new RegionScanner[thresholds.length];
+		for (int t = 0; t < thresholds.length; t++)
+			scanners[t] = new RegionScanner(chromosome, thresholds[t], minSizes, maxSizes);
+		double coverageTotal;
+
+		// workers summing a materialized mean, each needs its own buffer
+		long bufferUnits = (Math.min(streamingSize, materializedSize) >> RegionDetector.MEMORY_UNIT_SHIFT) + 1;
+		int degreeOfParallelism = 1;
+		if (!streaming && Config.sampleParallelMean)
+			degreeOfParallelism = (int) Math.max(1, Math.min(budget / bufferUnits,
+					SampleParallelReducer.getDegreeOfParallelism(chromosomeSize, alignments.size())));
+
+		// reserve memory before loading (a current summary index is queried without touching the coverage)
+		int reservedUnits = 0;
+		if (!indexed || !CoverageSummaryIndex.isCurrent(alignments, chromosome))
+			reservedUnits = (int) Math.min(budget, degreeOfParallelism * bufferUnits);
+
+		memory.acquire(reservedUnits);
+		try {
+			if (indexed) {
+				CoverageSummaryIndex index = CoverageSummaryIndex.open(alignments, chromosome, streaming,
+						degreeOfParallelism);
+				for (RegionScanner scanner : scanners)
+					index.scan(scanner);
+				coverageTotal = index.getCoverageTotal();
+			} else if (streaming)
+				coverageTotal = RegionDetector.scanMeanCoverage(alignments, chromosome, scanners);
+			else {
+				// with a single worker the mean is summed in order of the alignments, so that results do not depend
+				// on the number of threads
+				float[] meanNormalizedCoverage = SampleParallelReducer.meanNormalizedCoverage(alignments, chromosome,
+						degreeOfParallelism);
+				coverageTotal = RegionDetector.scanCoverage(meanNormalizedCoverage, scanners);
+			}
+		} finally {
+			memory.release(reservedUnits);
+		}
+
+		ChromosomeRegions[][] results = new ChromosomeRegions[thresholds.length][minSizes.length];
+		for (int t = 0; t < thresholds.length; t++)
+			for (int w = 0; w < minSizes.length; w++)
+				results[t][w] = new ChromosomeRegions(chromosome, scanners[t].getRegions(w),
+						scanners[t].getCoverageRegions(), coverageTotal);
+		return results;
+	}
+
+	/**
+	 * Fused block-wise region detection. Computes the mean normalized coverage of the alignments for one block and
+	 * immediately scans it for regions at or above each threshold. Requires a single pass and one block per alignment
+	 * in memory, results equal those of scanCoverage on the materialized mean.
+	 * @param alignments list of alignments
+	 * @param chromosome name of the chromosome
+	 * @param scanners region scanners (sorted by threshold)
+	 * @return the sum of the mean coverage of the chromosome
+	 * @throws IOException if a coverage file cannot be read
+	 */
+	private static double scanMeanCoverage(ArrayList<Alignment> alignments, String chromosome,
+			RegionScanner[] scanners) throws IOException {
+		double coverageTotal = 0;
+
+		MeanCoverageCursor cursor = new MeanCoverageCursor(alignments, chromosome, RegionDetector.SCAN_CHUNK_SIZE);
+		try {
+			while (cursor.next()) {
+				int length = cursor.getChunkLength();
+				float[] mean = cursor.getMeanChunk();
+
+				float blockMax = 0;
+				for (int p = 0; p < length; p++) {
+					coverageTotal += mean[p];
+					blockMax = Math.max(blockMax, mean[p]);
+				}
+				RegionDetector.scanBlock(scanners, mean, 0, length, cursor.getChunkStart(), blockMax);
+			}
+		} finally {
+			cursor.close();
+		}
+		return coverageTotal;
+	}
+
+	/**
+	 * Scans a coverage track for regions at or above each threshold
+	 * @param coverage coverage track of the chromosome
+	 * @param scanners region scanners (sorted by threshold)
+	 * @return the sum of the coverage of the chromosome
+	 */
+	private static double scanCoverage(float[] coverage, RegionScanner[] scanners) {
+		double coverageTotal = 0;
+
+		for (int from = 0; from < coverage.length; from += RegionDetector.SCAN_CHUNK_SIZE) {
+			int to = Math.min(from + RegionDetector.SCAN_CHUNK_SIZE, coverage.length);
+
+			float blockMax = 0;
+			for (int p = from; p < to; p++) {
+				coverageTotal += coverage[p];
+				blockMax = Math.max(blockMax, coverage[p]);
+			}
+			RegionDetector.scanBlock(scanners, coverage, from, to - from, from, blockMax);
+		}
+		return coverageTotal;
+	}
+
+	private static void scanBlock(RegionScanner[] scanners, float[] values, int offset, int length, int position,
+			float blockMax) {
+		// regions of higher thresholds are nested in regions of lower thresholds: once a threshold is above the block
+		// maximum and has no open region, all higher thresholds can be skipped
+		for (RegionScanner scanner : scanners) {
+			if (blockMax < scanner.getThreshold() && !scanner.isRegionOpen())
+				break;
+			scanner.scan(values, offset, length, position);
+		}
+	}
+}
@@ -0,0 +1,130 @@
+package cna.analysis;
+
+import cna.data.RegionSet;
+import cna.parallel.CoverageKernel;
+import cna.parallel.CoverageKernels;
+
+/**
+ * Scans the coverage of a chromosome block by block for regions at or above a threshold. Regions spanning block edges
+ * are carried over, regions are reported for several size windows at once. A region still open at the end of the
+ * chromosome is not reported.
+ * @author Stefan Grabuschnig
+ *
+ */
+public class RegionScanner {
+	private final CoverageKernel kernel = CoverageKernels.get();
+	private final String chromosome;
+	private final double threshold;
+	private final float floatThreshold;
+	private final int[] minSizes;
+	private final int[] maxSizes;
+	private final RegionSet[] regions;
+	private int[] crossings = new int[0];
+
+	private int regionStart = -1;
+	private double coverageRegions = 0;
+
+	/**
+	 * @param chromosome name of the chromosome
+	 * @param threshold threshold for coverage interpretation
+	 * @param minSizes minimum sizes for a region classified as covered (one per size window)
+	 * @param maxSizes maximum sizes for a region classified as covered (one per size window)
+	 */
+	public RegionScanner(String chromosome, double threshold, int[] minSizes, int[] maxSizes) {
+		this.chromosome = chromosome;
+		this.threshold = threshold;
+		this.floatThreshold = CoverageKernels.floatThreshold(threshold);
+		this.minSizes = minSizes;
+		this.maxSizes = maxSizes;
+		this.regions = new RegionSet[minSizes.length];
+		for (int w = 0; w < minSizes.length; w++)
+			this.regions[w] = new RegionSet();
+	}
+
+	/**
+	 * Scans the next block of the chromosome
+	 * @param values array containing the coverage of the block
+	 * @param offset index of the first value of the block in values
+	 * @param length number of positions of the block
+	 * @param position genomic position of the first value of the block
+	 */
+	public void scan(float[] values, int offset, int length, int position) {
+		if (this.crossings.length < length)
+			this.crossings = new int[length];
+
+		int numberOfCrossings = this.kernel.findThresholdCrossings(values, this.floatThreshold, this.regionStart >= 0,
+				this.crossings, offset, offset + length);
+
+		for (int c = 0; c < numberOfCrossings; c++) {
+			int i = position + this.crossings[c] - offset;
+			if (this.regionStart < 0)
+				this.regionStart = i;
+			else {
+				for (int p = Math.max(this.regionStart, position); p < i; p++)
+					this.coverageRegions += values[p - position + offset];
+				this.closeRegion(i);
+			}
+		}
+
+		// region open at the end of the block
+		if (this.regionStart >= 0)
+			for (int p = Math.max(this.regionStart, position); p < position + length; p++)
+				this.coverageRegions += values[p - position + offset];
+	}
+
+	/**
+	 * Skips a block known to lie entirely below threshold (closes an open region)
+	 * @param position genomic position of the first value of the block
+	 */
+	public void skip(int position) {
+		if (this.regionStart >= 0)
+			this.closeRegion(position);
+	}
+
+	/**
+	 * Covers a block known to lie entirely at or above threshold (opens a region or extends the open region)
+	 * @param position genomic position of the first value of the block
+	 * @param sum sum of the coverage of the block
+	 */
+	public void cover(int position, double sum) {
+		if (this.regionStart < 0)
+			this.regionStart = position;
+		this.coverageRegions += sum;
+	}
+
+	private void closeRegion(int end) {
+		for (int w = 0; w < this.minSizes.length; w++)
+			if ((end - this.regionStart) >= this.minSizes[w] && (end - this.regionStart) <= this.maxSizes[w])
+				this.regions[w].add(this.chromosome, this.regionStart, end - 1);
+		this.regionStart = -1;
+	}
+
+	/**
+	 * @return true if a region is open at the end of the last scanned block
+	 */
+	public boolean isRegionOpen() {
+		return this.regionStart >= 0;
+	}
+
+	/**
+	 * @return the threshold for coverage interpretation
+	 */
+	public double getThreshold() {
+		return this.threshold;
+	}
+
+	/**
+	 * @return the sum of the coverage of all positions at or above threshold
+	 */
+	public double getCoverageRegions() {
+		return this.coverageRegions;
+	}
+
+	/**
+	 * @param window index of the size window
+	 * @return the regions interpreted as covered within the size window
+	 */
+	public RegionSet getRegions(int window) {
+		return this.regions[window];
+	}
+}
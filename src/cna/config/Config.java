@@ -8,10 +8,20 @@ package cna.config;
 public class Config {
 	
 	//performance
-	public static final int numThreads = 15; //number of threads used for parallel computation
+	public static int numThreads = Integer.getInteger("cna.threads.cpu", Runtime.getRuntime().availableProcessors()); //number of threads used for parallel computation
+	public static int ioThreads = Integer.getInteger("cna.threads.io", 4 * numThreads); //number of threads used for blocking file I/O
+	public static int dbThreads = Integer.getInteger("cna.threads.db", 4); //maximum number of concurrent database queries
+	public static boolean virtualThreads = Boolean.parseBoolean(System.getProperty("cna.threads.virtual", "true")); //run blocking I/O on virtual threads if supported by the JVM (Java 21+)
+	public static int queueCapacity = Integer.getInteger("cna.queue.capacity", 1024); //maximum number of waiting tasks per I/O and DB pool
+	public static int repeatCacheSize = Integer.getInteger("cna.rmsk.cache", 1024); //maximum size of repeat intervals and labels kept in memory (MB)
+	public static boolean vectorKernels = true; //use SIMD coverage kernels (requires --add-modules jdk.incubator.vector)
 	
 	//marker detection
 	public static boolean fragmentsOnly = true; //ignore non concordantly mapped reads
+	public static boolean summaryIndex = false; //query covered regions from persisted summary indices of the cohort mean (coverage sums may differ in the last digits)
+	public static boolean sampleParallelMean = false; //sum a materialized cohort mean with one worker per alignment subset as far as memory permits (the mean depends on the number of workers, i.e. on memory and cores, and may differ in the last digits)
+	
+	//composition analysis
 	
 	//coverage plots
 	public static boolean plotDNAseClusters = false; //plot DNAse sensitive sites in coverage charts
@@ -24,4 +34,5 @@ public class Config {
 	public static final String dbUser = "genomep";
 	public static final String dbPassword = "password";
 	public static final String dbSchema = "hg38"; //"bosTau8";
+	public static String rmskFile = System.getProperty("cna.rmsk.file"); //UCSC rmsk.txt.gz dump of dbSchema, imported instead of querying the rmsk table (null: query the annotation database)
 }
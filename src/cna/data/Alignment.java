@@ -12,7 +12,13 @@ import java.nio.file.Files;
 import java.nio.file.Paths;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
 
+import cna.parallel.CoverageKernels;
+import cna.parallel.ExecutionRuntime;
+import cna.parallel.ExecutionRuntime.WorkloadClass;
 import htsjdk.samtools.SAMRecord;
 import htsjdk.samtools.SamInputResource;
 import htsjdk.samtools.SamReader;
@@ -43,6 +49,18 @@ public class Alignment {
 
 	private HashMap<String, File> fragmentsFiles = null; // fragments derived from concordant read pairs
 
+	// Summary statistics
+	private File statsFile = null; // statistics of absolute coverage
+	private File statsfoFile = null; // statistics of absolute coverage fragments only
+	private AlignmentStatistics statistics = null;
+	private AlignmentStatistics statisticsFragmentsOnly = null;
+
+	private List<String> repeatFamilies = null; // repeat families counted at ingest (null: not counted)
+	private File compositionFile = null; // coverage per repeat family
+	private File compositionfoFile = null; // coverage per repeat family fragments only
+	private RepeatComposition composition = null;
+	private RepeatComposition compositionFragmentsOnly = null;
+
 	/**
 	 * @param alignmentID name of the alignment
 	 * @param individual individual to which the alignment belongs
@@ -53,12 +71,28 @@ public class Alignment {
 	 */
 	public Alignment(String alignmentID, Individual individual, String bamFile, String time, String infectionState,
 			Genome genome) {
+		this(alignmentID, individual, bamFile, time, infectionState, genome, null);
+	}
+
+	/**
+	 * @param alignmentID name of the alignment
+	 * @param individual individual to which the alignment belongs
+	 * @param bamFile path to the sam/bam file
+	 * @param time name of the time assigned to the alignment
+	 * @param infectionState name of the infection state
+	 * @param genome the respective genome
+	 * @param repeatFamilies names of the repeat families whose coverage is counted while the coverage is calculated
+	 *            (label tracks are taken from the RepeatMaskProvider cache), null to skip counting
+	 */
+	public Alignment(String alignmentID, Individual individual, String bamFile, String time, String infectionState,
+			Genome genome, List<String> repeatFamilies) {
 		this.alignmentID = alignmentID;
 		this.individual = individual;
 		this.infectionState = infectionState;
 		this.bamFile = bamFile;
 		this.time = time;
 		this.genome = genome;
+		this.repeatFamilies = repeatFamilies;
 		this.init();
 	}
 
@@ -85,6 +119,10 @@ public class Alignment {
 			this.fragmentsFiles.put(chromosome,
 					new File(coverageDataPath + File.separator + chromosome + File.separator + chromosome + ".frags"));
 		}
+		this.statsFile = new File(coverageDataPath + File.separator + this.alignmentID + ".stats");
+		this.statsfoFile = new File(coverageDataPath + File.separator + this.alignmentID + ".statsfo");
+		this.compositionFile = new File(coverageDataPath + File.separator + this.alignmentID + ".comp");
+		this.compositionfoFile = new File(coverageDataPath + File.separator + this.alignmentID + ".compfo");
 
 		// check if coverage data already exist
 		boolean filesExist = true;
@@ -109,6 +147,33 @@ public class Alignment {
 				System.exit(0);
 			}
 		}
+
+		// calculate statistics for coverage data created before statistics were introduced
+		if (!this.statsFile.exists() || !this.statsfoFile.exists()) {
+			try {
+				this.calculateStatistics();
+			} catch (IOException e) {
+				System.out.println(this.alignmentID + ": Error while writing statistics!");
+				e.printStackTrace();
+				System.exit(0);
+			}
+		}
+	}
+
+	private void calculateStatistics() throws IOException {
+		System.out.println(this.alignmentID + ": Calculating statistics...");
+		AlignmentStatistics statistics = new AlignmentStatistics();
+		AlignmentStatistics statisticsFragmentsOnly = new AlignmentStatistics();
+
+		for (String chromosome : this.genome.getChromosomeNames()) {
+			int fragmentCount = this.getFragments(chromosome).length / 2;
+			statistics.addChromosome(chromosome, Alignment.uncompressIntArray(
+					Files.readAllBytes(Paths.get(this.covAFiles.get(chromosome).getAbsolutePath()))), fragmentCount);
+			statisticsFragmentsOnly.addChromosome(chromosome, Alignment.uncompressIntArray(
+					Files.readAllBytes(Paths.get(this.covAfoFiles.get(chromosome).getAbsolutePath()))), fragmentCount);
+		}
+		statistics.write(this.statsFile);
+		statisticsFragmentsOnly.write(this.statsfoFile);
 	}
 
 	private void calculateCoverage() throws IOException {
@@ -133,6 +198,12 @@ public class Alignment {
 			genomeLength += this.genome.getChromosomeSize(chromosome);
 		}
 
+		// compositions of previous coverage data are invalid (written again below if repeat families are counted)
+		Files.deleteIfExists(this.compositionFile.toPath());
+		Files.deleteIfExists(this.compositionfoFile.toPath());
+		this.composition = null;
+		this.compositionFragmentsOnly = null;
+
 		// read bam
 		System.out.println(this.alignmentID + ": Calculating coverage...");
 
@@ -188,7 +259,18 @@ public class Alignment {
 			for (ReadPair rp : readPairs.get(chromosome).values())
 				mappedBasesFragments += rp.getLength();
 
+		AlignmentStatistics statistics = new AlignmentStatistics();
+		AlignmentStatistics statisticsFragmentsOnly = new AlignmentStatistics();
+		RepeatComposition composition = null;
+		RepeatComposition compositionFragmentsOnly = null;
+		if (this.repeatFamilies != null) {
+			composition = new RepeatComposition(this.repeatFamilies);
+			compositionFragmentsOnly = new RepeatComposition(this.repeatFamilies);
+		}
+
 		for (String chromosome : this.genome.getChromosomeNames()) {
+			RepeatLabelTrack labels = this.repeatFamilies == null ? null
+					: RepeatMaskProvider.getRepeatLabels(this.genome, chromosome, this.repeatFamilies);
 			int[] absoluteCoverage = new int[this.genome.getChromosomeSize(chromosome)];
 			float[] normalizedCoverage = new float[this.genome.getChromosomeSize(chromosome)];
 			int[] fragments = new int[2 * readPairs.get(chromosome).size()];
@@ -211,8 +293,8 @@ public class Alignment {
 
 			// normalize
 			double averageCoverage = mappedBasesFragments / genomeLength;
-			for (int i = 0; i < normalizedCoverage.length; i++)
-				normalizedCoverage[i] = (float) ((double) absoluteCoverage[i] / averageCoverage);
+			CoverageKernels.get().normalize(absoluteCoverage, normalizedCoverage, averageCoverage, 0,
+					normalizedCoverage.length);
 
 			// write fragments file
 			this.fragmentsFiles.get(chromosome).getParentFile().mkdirs();
@@ -229,6 +311,10 @@ public class Alignment {
 			Files.write(Paths.get(this.covNfoFiles.get(chromosome).getAbsolutePath()),
 					Alignment.compress(normalizedCoverage));
 
+			statisticsFragmentsOnly.addChromosome(chromosome, absoluteCoverage, fragmentIndex / 2);
+			if (labels != null)
+				compositionFragmentsOnly.addChromosome(chromosome, labels, absoluteCoverage);
+
 			// add coverage from single reads
 			for (int[] sr : singleReads.get(chromosome))
 				for (int i = sr[0]; i <= sr[1]; i++)
@@ -236,8 +322,8 @@ public class Alignment {
 
 			// normalize
 			averageCoverage = (mappedBasesFragments + mappedBasesSingleReads) / genomeLength;
-			for (int i = 0; i < normalizedCoverage.length; i++)
-				normalizedCoverage[i] = (float) ((double) absoluteCoverage[i] / averageCoverage);
+			CoverageKernels.get().normalize(absoluteCoverage, normalizedCoverage, averageCoverage, 0,
+					normalizedCoverage.length);
 
 			// write absolute coverage
 			this.covAFiles.get(chromosome).getParentFile().mkdirs();
@@ -248,6 +334,24 @@ public class Alignment {
 			this.covNFiles.get(chromosome).getParentFile().mkdirs();
 			Files.write(Paths.get(this.covNFiles.get(chromosome).getAbsolutePath()),
 					Alignment.compress(normalizedCoverage));
+
+			statistics.addChromosome(chromosome, absoluteCoverage, fragmentIndex / 2);
+			if (labels != null)
+				composition.addChromosome(chromosome, labels, absoluteCoverage);
+		}
+
+		// write statistics files
+		statistics.write(this.statsFile);
+		statisticsFragmentsOnly.write(this.statsfoFile);
+		this.statistics = statistics;
+		this.statisticsFragmentsOnly = statisticsFragmentsOnly;
+
+		// write repeat composition files
+		if (composition != null) {
+			composition.write(this.compositionFile);
+			compositionFragmentsOnly.write(this.compositionfoFile);
+			this.composition = composition;
+			this.compositionFragmentsOnly = compositionFragmentsOnly;
 		}
 	}
 
@@ -405,6 +509,168 @@ public class Alignment {
 		return null;
 	}
 
+	/**
+	 * Reads the count data asynchronously on the I/O executor
+	 * @param chromosome the name of the chromosome
+	 * @return future of an integer array containing the count data for the specified chromosome
+	 */
+	public CompletableFuture<int[]> getAbsoluteCoverageAsync(final String chromosome) {
+		return ExecutionRuntime.supplyAsync(WorkloadClass.IO, new Callable<int[]>() {
+			@Override
+			public int[] call() {
+				return Alignment.this.getAbsoluteCoverage(chromosome);
+			}
+		});
+	}
+
+	/**
+	 * Reads the normalized count data asynchronously on the I/O executor
+	 * @param chromosome the name of the chromosome
+	 * @return future of a float array containing the normalized count data for the specified chromosome
+	 */
+	public CompletableFuture<float[]> getNormalizedCoverageAsync(final String chromosome) {
+		return ExecutionRuntime.supplyAsync(WorkloadClass.IO, new Callable<float[]>() {
+			@Override
+			public float[] call() {
+				return Alignment.this.getNormalizedCoverage(chromosome);
+			}
+		});
+	}
+
+	/**
+	 * Reads the normalized count data of a range asynchronously on the I/O executor
+	 * @param chromosome the name of the chromosome
+	 * @param from first position (zero based, inclusive)
+	 * @param to last position (zero based, exclusive)
+	 * @return future of a float array containing the normalized count data for the specified range, completed
+	 *         exceptionally if the coverage file cannot be read
+	 */
+	public CompletableFuture<float[]> getNormalizedCoverageAsync(final String chromosome, final int from,
+			final int to) {
+		return ExecutionRuntime.supplyAsync(WorkloadClass.IO, new Callable<float[]>() {
+			@Override
+			public float[] call() throws IOException {
+				float[] coverage = new float[to - from];
+				CoverageCursor cursor = Alignment.this.openNormalizedCoverageCursor(chromosome,
+						CoverageCursor.DEFAULT_CHUNK_SIZE, from, to);
+				while (cursor.next())
+					System.arraycopy(cursor.getFloatChunk(), 0, coverage, cursor.getChunkStart() - from,
+							cursor.getChunkLength());
+				cursor.close();
+				return coverage;
+			}
+		});
+	}
+
+	/**
+	 * @param chromosome the name of the chromosome
+	 * @param chunkSize number of positions per chunk
+	 * @return a cursor streaming the count data for the specified chromosome in chunks
+	 * @throws IOException if the coverage file cannot be read
+	 */
+	public CoverageCursor openAbsoluteCoverageCursor(String chromosome, int chunkSize) throws IOException {
+		return this.openAbsoluteCoverageCursor(chromosome, chunkSize, 0, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param chromosome the name of the chromosome
+	 * @param chunkSize number of positions per chunk
+	 * @param from first position (zero based, inclusive)
+	 * @param to last position (zero based, exclusive)
+	 * @return a cursor streaming the count data for the specified range in chunks
+	 * @throws IOException if the coverage file cannot be read
+	 */
+	public CoverageCursor openAbsoluteCoverageCursor(String chromosome, int chunkSize, int from, int to)
+			throws IOException {
+		if (cna.config.Config.fragmentsOnly)
+			return new CoverageCursor(this.covAfoFiles.get(chromosome), chunkSize, from, to);
+		else
+			return new CoverageCursor(this.covAFiles.get(chromosome), chunkSize, from, to);
+	}
+
+	/**
+	 * @param chromosome the name of the chromosome
+	 * @param chunkSize number of positions per chunk
+	 * @return a cursor streaming the normalized count data for the specified chromosome in chunks
+	 * @throws IOException if the coverage file cannot be read
+	 */
+	public CoverageCursor openNormalizedCoverageCursor(String chromosome, int chunkSize) throws IOException {
+		return this.openNormalizedCoverageCursor(chromosome, chunkSize, 0, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param chromosome the name of the chromosome
+	 * @param chunkSize number of positions per chunk
+	 * @param from first position (zero based, inclusive)
+	 * @param to last position (zero based, exclusive)
+	 * @return a cursor streaming the normalized count data for the specified range in chunks
+	 * @throws IOException if the coverage file cannot be read
+	 */
+	public CoverageCursor openNormalizedCoverageCursor(String chromosome, int chunkSize, int from, int to)
+			throws IOException {
+		if (cna.config.Config.fragmentsOnly)
+			return new CoverageCursor(this.covNfoFiles.get(chromosome), chunkSize, from, to);
+		else
+			return new CoverageCursor(this.covNFiles.get(chromosome), chunkSize, from, to);
+	}
+
+	/**
+	 * @param chromosome the name of the chromosome
+	 * @return the file containing the normalized count data (fragments only if set in config) for the chromosome
+	 */
+	public File getNormalizedCoverageFile(String chromosome) {
+		if (cna.config.Config.fragmentsOnly)
+			return this.covNfoFiles.get(chromosome);
+		else
+			return this.covNFiles.get(chromosome);
+	}
+
+	/**
+	 * @return summary statistics of the absolute coverage (fragments only if set in config) for all chromosomes
+	 */
+	public synchronized AlignmentStatistics getStatistics() {
+		try {
+			if (cna.config.Config.fragmentsOnly) {
+				if (this.statisticsFragmentsOnly == null)
+					this.statisticsFragmentsOnly = AlignmentStatistics.read(this.statsfoFile);
+				return this.statisticsFragmentsOnly;
+			} else {
+				if (this.statistics == null)
+					this.statistics = AlignmentStatistics.read(this.statsFile);
+				return this.statistics;
+			}
+		} catch (IOException e) {
+			System.out.println("ERROR reading statistics file for " + this.alignmentID);
+			e.printStackTrace();
+		}
+		return null;
+	}
+
+	/**
+	 * @param repeatFamilies names of the considered repeat families
+	 * @return coverage per repeat family counted at ingest (fragments only if set in config), null if it was not
+	 *         counted for the repeat families
+	 */
+	public synchronized RepeatComposition getRepeatComposition(List<String> repeatFamilies) {
+		try {
+			RepeatComposition composition;
+			if (cna.config.Config.fragmentsOnly) {
+				if (this.compositionFragmentsOnly == null && this.compositionfoFile.exists())
+					this.compositionFragmentsOnly = RepeatComposition.read(this.compositionfoFile);
+				composition = this.compositionFragmentsOnly;
+			} else {
+				if (this.composition == null && this.compositionFile.exists())
+					this.composition = RepeatComposition.read(this.compositionFile);
+				composition = this.composition;
+			}
+			return composition != null && composition.isBuiltFor(repeatFamilies) ? composition : null;
+		} catch (IOException e) {
+			System.out.println("ERROR reading repeat composition file for " + this.alignmentID);
+			e.printStackTrace();
+		}
+		return null;
+	}
+
 	/**
 	 * @param chromosome the name of the chromosome
 	 * @return int array containing start and stop coordinates of fragments reconstructed from concordanly mapped read pairs
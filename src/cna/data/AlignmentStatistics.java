@@ -0,0 +1,208 @@
+package cna.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Set;
+
+import net.jpountz.lz4.LZ4FrameInputStream;
+import net.jpountz.lz4.LZ4FrameOutputStream;
+
+/**
+ * Stores per-chromosome summary statistics of the absolute coverage of an alignment. Computed once at ingest and
+ * persisted next to the coverage data, so that summaries (i.e. mapped bases per chromosome) do not require
+ * reading the coverage tracks.
+ * @author Stefan Grabuschnig
+ *
+ */
+public class AlignmentStatistics {
+
+	/**
+	 * number of bins in the depth histogram. Bin i counts positions with coverage i, the last bin counts all
+	 * positions with coverage of at least DEPTH_HISTOGRAM_BINS - 1
+	 */
+	public static final int DEPTH_HISTOGRAM_BINS = 16;
+
+	private LinkedHashMap<String, ChromosomeStatistics> chromosomes;
+
+	/**
+	 * instantiates empty statistics (no chromosomes yet)
+	 */
+	public AlignmentStatistics() {
+		this.chromosomes = new LinkedHashMap<String, ChromosomeStatistics>(100);
+	}
+
+	/**
+	 * calculates and adds statistics for a chromosome
+	 * @param chromosome name of the chromosome
+	 * @param absoluteCoverage absolute coverage of the chromosome
+	 * @param fragmentCount number of fragments mapped to the chromosome
+	 */
+	public void addChromosome(String chromosome, int[] absoluteCoverage, int fragmentCount) {
+		ChromosomeStatistics statistics = new ChromosomeStatistics(absoluteCoverage.length, fragmentCount);
+
+		for (int pos = 0; pos < absoluteCoverage.length; pos++) {
+			int coverage = absoluteCoverage[pos];
+			statistics.sum += coverage;
+
+			if (coverage > 0)
+				statistics.coveredBases++;
+			if (coverage > statistics.max)
+				statistics.max = coverage;
+
+			if (coverage < DEPTH_HISTOGRAM_BINS - 1)
+				statistics.depthHistogram[coverage]++;
+			else
+				statistics.depthHistogram[DEPTH_HISTOGRAM_BINS - 1]++;
+		}
+		this.chromosomes.put(chromosome, statistics);
+	}
+
+	/**
+	 * @return names of all chromosomes with statistics
+	 */
+	public Set<String> getChromosomeNames() {
+		return this.chromosomes.keySet();
+	}
+
+	/**
+	 * @param chromosome name of the chromosome
+	 * @return true if statistics for the chromosome are available
+	 */
+	public boolean contains(String chromosome) {
+		return this.chromosomes.containsKey(chromosome);
+	}
+
+	/**
+	 * @param chromosome name of the chromosome
+	 * @return the size of the chromosome (in base pairs)
+	 */
+	public int getLength(String chromosome) {
+		return this.chromosomes.get(chromosome).length;
+	}
+
+	/**
+	 * @param chromosome name of the chromosome
+	 * @return the sum of the absolute coverage (mapped bases)
+	 */
+	public long getSum(String chromosome) {
+		return this.chromosomes.get(chromosome).sum;
+	}
+
+	/**
+	 * @param chromosome name of the chromosome
+	 * @return the number of positions with a coverage greater than zero
+	 */
+	public long getCoveredBases(String chromosome) {
+		return this.chromosomes.get(chromosome).coveredBases;
+	}
+
+	/**
+	 * @param chromosome name of the chromosome
+	 * @return the maximum absolute coverage
+	 */
+	public int getMaxCoverage(String chromosome) {
+		return this.chromosomes.get(chromosome).max;
+	}
+
+	/**
+	 * @param chromosome name of the chromosome
+	 * @return the mean absolute coverage
+	 */
+	public double getMeanCoverage(String chromosome) {
+		ChromosomeStatistics statistics = this.chromosomes.get(chromosome);
+		if (statistics.length == 0)
+			return 0.0d;
+		return (double) statistics.sum / statistics.length;
+	}
+
+	/**
+	 * @param chromosome name of the chromosome
+	 * @return the depth histogram (see DEPTH_HISTOGRAM_BINS)
+	 */
+	public long[] getDepthHistogram(String chromosome) {
+		return this.chromosomes.get(chromosome).depthHistogram.clone();
+	}
+
+	/**
+	 * @param chromosome name of the chromosome
+	 * @return the number of fragments derived from concordant read pairs
+	 */
+	public int getFragmentCount(String chromosome) {
+		return this.chromosomes.get(chromosome).fragmentCount;
+	}
+
+	/**
+	 * writes the statistics to a file
+	 * @param file the target file
+	 * @throws IOException if the file cannot be written
+	 */
+	public void write(File file) throws IOException {
+		file.getParentFile().mkdirs();
+		DataOutputStream dos = new DataOutputStream(
+				new BufferedOutputStream(new LZ4FrameOutputStream(new FileOutputStream(file))));
+
+		dos.writeInt(this.chromosomes.size());
+		for (String chromosome : this.chromosomes.keySet()) {
+			ChromosomeStatistics statistics = this.chromosomes.get(chromosome);
+			dos.writeUTF(chromosome);
+			dos.writeInt(statistics.length);
+			dos.writeInt(statistics.fragmentCount);
+			dos.writeLong(statistics.sum);
+			dos.writeLong(statistics.coveredBases);
+			dos.writeInt(statistics.max);
+			dos.writeInt(statistics.depthHistogram.length);
+			for (long count : statistics.depthHistogram)
+				dos.writeLong(count);
+		}
+		dos.flush();
+		dos.close();
+	}
+
+	/**
+	 * @param file a file written by write(File)
+	 * @return the statistics stored in the file
+	 * @throws IOException if the file cannot be read
+	 */
+	public static AlignmentStatistics read(File file) throws IOException {
+		AlignmentStatistics alignmentStatistics = new AlignmentStatistics();
+		DataInputStream dis = new DataInputStream(
+				new LZ4FrameInputStream(new BufferedInputStream(new FileInputStream(file))));
+
+		int numberOfChromosomes = dis.readInt();
+		for (int c = 0; c < numberOfChromosomes; c++) {
+			String chromosome = dis.readUTF();
+			ChromosomeStatistics statistics = new ChromosomeStatistics(dis.readInt(), dis.readInt());
+			statistics.sum = dis.readLong();
+			statistics.coveredBases = dis.readLong();
+			statistics.max = dis.readInt();
+			statistics.depthHistogram = new long[dis.readInt()];
+			for (int i = 0; i < statistics.depthHistogram.length; i++)
+				statistics.depthHistogram[i] = dis.readLong();
+			alignmentStatistics.chromosomes.put(chromosome, statistics);
+		}
+		dis.close();
+		return alignmentStatistics;
+	}
+
+	private static class ChromosomeStatistics {
+		private int length;
+		private int fragmentCount;
+		private long sum = 0;
+		private long coveredBases = 0;
+		private int max = 0;
+		private long[] depthHistogram;
+
+		ChromosomeStatistics(int length, int fragmentCount) {
+			this.length = length;
+			this.fragmentCount = fragmentCount;
+			this.depthHistogram = new long[DEPTH_HISTOGRAM_BINS];
+		}
+	}
+}
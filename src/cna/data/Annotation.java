@@ -5,8 +5,13 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.StringTokenizer;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Semaphore;
 
 import cna.config.Config;
+import cna.parallel.ExecutionRuntime;
+import cna.parallel.ExecutionRuntime.WorkloadClass;
 
 /**
  * Represents gene and repeat annotation for a distinct genomic region
@@ -37,7 +42,46 @@ public class Annotation {
 		this.retrieveAnnotation();
 	}
 
+	// annotation retrieved in bulk (see BulkAnnotator)
+	Annotation(String chromosome, int start, int stop, ArrayList<Gene> genes, ArrayList<Repeat> repeats,
+			ArrayList<Region> dnaseSensitiveSites) {
+		this.genes = genes;
+		this.repeats = repeats;
+		this.dnaseSensitiveSites = dnaseSensitiveSites;
+		this.chromosome = chromosome;
+		this.start = start;
+		this.stop = stop;
+	}
+
+	/**
+	 * Retrieves the annotation of a region asynchronously on the I/O executor. The number of concurrent database
+	 * connections is limited by config.
+	 * @param chromosome name of the chromosome
+	 * @param start genomic start coordinate of the region
+	 * @param stop genomic stop coordinate of the region
+	 * @return future of the annotation
+	 */
+	public static CompletableFuture<Annotation> retrieveAnnotationAsync(final String chromosome, final int start,
+			final int stop) {
+		return ExecutionRuntime.supplyAsync(WorkloadClass.IO, new Callable<Annotation>() {
+			@Override
+			public Annotation call() {
+				return new Annotation(chromosome, start, stop);
+			}
+		});
+	}
+
 	private void retrieveAnnotation() {
+		Semaphore databasePermits = ExecutionRuntime.getDatabasePermits();
+		databasePermits.acquireUninterruptibly();
+		try {
+			this.queryAnnotation();
+		} finally {
+			databasePermits.release();
+		}
+	}
+
+	private void queryAnnotation() {
 		DataBase db = new DataBase(Config.dbDriver, Config.dbURL, Config.dbUser, Config.dbPassword);
 		db.connect();
 		
@@ -64,38 +108,22 @@ public class Annotation {
 
 		try {
 			while (rs.next()) {
-				Blob exonStarts = rs.getBlob("refGene.exonStarts");
-				Blob exonEnds = rs.getBlob("refGene.exonEnds");
-
-				String starts = new String(exonStarts.getBytes(1l, (int) exonStarts.length()));
-				String ends = new String(exonEnds.getBytes(1l, (int) exonEnds.length()));
-
-				StringTokenizer tokenizer = new StringTokenizer(starts, ",");
-				StringTokenizer tokenizer2 = new StringTokenizer(ends, ",");
-
-				ArrayList<int[]> exons = new ArrayList<int[]>(10);
-
-				while (tokenizer.hasMoreTokens()) {
-					int[] exon = new int[2];
-					exon[0] = Integer.parseInt(tokenizer.nextToken());
-					exon[1] = Integer.parseInt(tokenizer2.nextToken());
-					exons.add(exon);
-				}
-
-				this.genes.add(new Gene(rs.getString("refGene.name"), rs.getString("refGene.name2"),
-						rs.getString("refLink.product"), rs.getInt("refGene.txStart"), rs.getInt("refGene.txEnd"),
-						exons));
+				this.genes.add(Annotation.readGene(rs));
 			}
 			
 			rs.close();
-			rs = db.performQuery(query2);
-
-			while (rs.next()) {
-				this.repeats.add(new Repeat(rs.getString("repName"), rs.getString("repClass"),
-						rs.getString("repFamily"), rs.getInt("genoStart"), rs.getInt("genoEnd")));
+			if (RepeatMasker.isImported())
+				this.repeats.addAll(RepeatMasker.getRepeats(this.chromosome, this.start, this.stop));
+			else {
+				rs = db.performQuery(query2);
+
+				while (rs.next()) {
+					this.repeats.add(new Repeat(rs.getString("repName"), rs.getString("repClass"),
+							rs.getString("repFamily"), rs.getInt("genoStart"), rs.getInt("genoEnd")));
+				}
+				rs.close();
 			}
 			
-			rs.close();
 			rs = db.performQuery(query3);
 
 			while (rs.next()) {
@@ -108,6 +136,30 @@ public class Annotation {
 		db.disconnect();
 	}
 
+	// gene of the current row of a refGene query joined with refLink
+	static Gene readGene(ResultSet rs) throws SQLException {
+		Blob exonStarts = rs.getBlob("refGene.exonStarts");
+		Blob exonEnds = rs.getBlob("refGene.exonEnds");
+
+		String starts = new String(exonStarts.getBytes(1l, (int) exonStarts.length()));
+		String ends = new String(exonEnds.getBytes(1l, (int) exonEnds.length()));
+
+		StringTokenizer tokenizer = new StringTokenizer(starts, ",");
+		StringTokenizer tokenizer2 = new StringTokenizer(ends, ",");
+
+		ArrayList<int[]> exons = new ArrayList<int[]>(10);
+
+		while (tokenizer.hasMoreTokens()) {
+			int[] exon = new int[2];
+			exon[0] = Integer.parseInt(tokenizer.nextToken());
+			exon[1] = Integer.parseInt(tokenizer2.nextToken());
+			exons.add(exon);
+		}
+
+		return new Gene(rs.getString("refGene.name"), rs.getString("refGene.name2"), rs.getString("refLink.product"),
+				rs.getInt("refGene.txStart"), rs.getInt("refGene.txEnd"), exons);
+	}
+
 	/** 
 	 * @return list of annotated genes
 	 */
@@ -0,0 +1,280 @@
+package cna.data;
+
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.TreeSet;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.Semaphore;
+
+import cna.config.Config;
+import cna.parallel.ExecutionRuntime;
+import cna.parallel.ExecutionRuntime.WorkloadClass;
+
+/**
+ * Annotates many regions at once. The repeats (cached interval index, see RepeatMaskProvider), genes and DNAse
+ * sensitive sites of a chromosome are loaded once (one streamed query per table instead of three queries per region)
+ * and joined with the regions of the chromosome in one sweep over both lists sorted by start. Regions and annotated
+ * features overlap like in Annotation (closed coordinates, start <= stop of the other and stop >= start of the other).
+ * @author Stefan Grabuschnig
+ *
+ */
+public class BulkAnnotator {
+
+	/**
+	 * Retrieves the annotation of all regions, chromosomes are processed concurrently on the I/O executor
+	 * @param regions list of regions (in any order, regions sorted by position are joined without sorting)
+	 * @return the annotations of the regions (in order of regions)
+	 */
+	public static ArrayList<Annotation> annotate(final ArrayList<Region> regions) {
+		LinkedHashMap<String, int[]> chromosomes = BulkAnnotator.groupByChromosome(regions);
+		Annotation[] annotations = new Annotation[regions.size()];
+
+		ArrayList<CompletableFuture<Annotation[]>> futures = new ArrayList<CompletableFuture<Annotation[]>>();
+		for (final String chromosome : chromosomes.keySet()) {
+			final int[] order = chromosomes.get(chromosome);
+			futures.add(ExecutionRuntime.supplyAsync(WorkloadClass.IO, new Callable<Annotation[]>() {
+				@Override
+				public Annotation[] call() throws SQLException {
+					return BulkAnnotator.annotateChromosome(chromosome, regions, order);
+				}
+			}));
+		}
+
+		int c = 0;
+		for (String chromosome : chromosomes.keySet()) {
+			int[] order = chromosomes.get(chromosome);
+			try {
+				Annotation[] chromosomeAnnotations = futures.get(c++).join();
+				for (int i = 0; i < order.length; i++)
+					annotations[order[i]] = chromosomeAnnotations[i];
+			} catch (CompletionException e) {
+				System.out.println("ERROR retrieving annotation of chromosome " + chromosome);
+				e.getCause().printStackTrace();
+				System.exit(0);
+			}
+		}
+		return new ArrayList<Annotation>(Arrays.asList(annotations));
+	}
+
+	/**
+	 * Sorts regions by the repeat families they overlap (only the repeat annotation is loaded)
+	 * @param regions list of regions (in any order, regions sorted by position are joined without sorting)
+	 * @return a hashmap of regions overlapping a single repeat family (key: name of the family), several repeat
+	 *         families (key: mixed) or none (key: nonRepeat), regions are kept in order within each list
+	 */
+	public static HashMap<String, ArrayList<Region>> sortRegions(ArrayList<Region> regions) {
+		HashMap<String, ArrayList<Region>> sortedRegions = new HashMap<String, ArrayList<Region>>(100);
+		sortedRegions.put("mixed", new ArrayList<Region>(regions.size()));
+		sortedRegions.put("nonRepeat", new ArrayList<Region>(regions.size()));
+
+		// family of every region, null for mixed or non repetitive regions
+		String[] families = new String[regions.size()];
+		boolean[] mixed = new boolean[regions.size()];
+		LinkedHashMap<String, int[]> chromosomes = BulkAnnotator.groupByChromosome(regions);
+		for (String chromosome : chromosomes.keySet()) {
+			int[] order = chromosomes.get(chromosome);
+			RepeatIntervalIndex intervals = RepeatMaskProvider.getRepeatIntervals(chromosome);
+			int[][] overlaps = BulkAnnotator.join(regions, order, BulkAnnotator.getStarts(intervals),
+					BulkAnnotator.getEnds(intervals), intervals.size());
+
+			for (int i = 0; i < order.length; i++) {
+				TreeSet<String> repFams = new TreeSet<String>();
+				for (int repeat : overlaps[i])
+					repFams.add(intervals.getFamilies()[intervals.getFamily(repeat)]);
+				if (repFams.size() == 1)
+					families[order[i]] = repFams.first();
+				mixed[order[i]] = repFams.size() > 1;
+			}
+		}
+
+		for (int i = 0; i < regions.size(); i++) {
+			Region r = regions.get(i);
+			if (families[i] != null) {
+				if (!sortedRegions.containsKey(families[i]))
+					sortedRegions.put(families[i], new ArrayList<Region>(regions.size()));
+				sortedRegions.get(families[i]).add(r);
+			} else if (mixed[i])
+				sortedRegions.get("mixed").add(r);
+			else
+				sortedRegions.get("nonRepeat").add(r);
+		}
+		return sortedRegions;
+	}
+
+	private static Annotation[] annotateChromosome(String chromosome, ArrayList<Region> regions, int[] order)
+			throws SQLException {
+		RepeatIntervalIndex intervals = RepeatMaskProvider.getRepeatIntervals(chromosome);
+		int[][] repeatOverlaps = BulkAnnotator.join(regions, order, BulkAnnotator.getStarts(intervals),
+				BulkAnnotator.getEnds(intervals), intervals.size());
+
+		ArrayList<Gene> genes = BulkAnnotator.loadGenes(chromosome);
+		int[] starts = new int[genes.size()];
+		int[] ends = new int[genes.size()];
+		for (int i = 0; i < genes.size(); i++) {
+			starts[i] = genes.get(i).getTxStart();
+			ends[i] = genes.get(i).getTxEnd();
+		}
+		int[][] geneOverlaps = BulkAnnotator.join(regions, order, starts, ends, genes.size());
+
+		ArrayList<Region> sites = BulkAnnotator.loadDNaseSensitiveSites(chromosome);
+		starts = new int[sites.size()];
+		ends = new int[sites.size()];
+		for (int i = 0; i < sites.size(); i++) {
+			starts[i] = sites.get(i).getStart();
+			ends[i] = sites.get(i).getStop();
+		}
+		int[][] siteOverlaps = BulkAnnotator.join(regions, order, starts, ends, sites.size());
+
+		Annotation[] annotations = new Annotation[order.length];
+		for (int i = 0; i < order.length; i++) {
+			ArrayList<Repeat> regionRepeats = new ArrayList<Repeat>(repeatOverlaps[i].length);
+			for (int repeat : repeatOverlaps[i])
+				regionRepeats.add(intervals.getRepeat(repeat));
+			ArrayList<Gene> regionGenes = new ArrayList<Gene>(geneOverlaps[i].length);
+			for (int gene : geneOverlaps[i])
+				regionGenes.add(genes.get(gene));
+			ArrayList<Region> regionSites = new ArrayList<Region>(siteOverlaps[i].length);
+			for (int site : siteOverlaps[i])
+				regionSites.add(sites.get(site));
+
+			Region r = regions.get(order[i]);
+			annotations[i] = new Annotation(chromosome, r.getStart(), r.getStop(), regionGenes, regionRepeats,
+					regionSites);
+		}
+		return annotations;
+	}
+
+	// indices of the regions per chromosome (in order of first occurrence) sorted by start
+	private static LinkedHashMap<String, int[]> groupByChromosome(ArrayList<Region> regions) {
+		LinkedHashMap<String, ArrayList<Integer>> indices = new LinkedHashMap<String, ArrayList<Integer>>();
+		for (int i = 0; i < regions.size(); i++) {
+			String chromosome = regions.get(i).getChromosome();
+			if (!indices.containsKey(chromosome))
+				indices.put(chromosome, new ArrayList<Integer>());
+			indices.get(chromosome).add(i);
+		}
+
+		LinkedHashMap<String, int[]> chromosomes = new LinkedHashMap<String, int[]>(2 * indices.size());
+		for (String chromosome : indices.keySet()) {
+			ArrayList<Integer> list = indices.get(chromosome);
+			boolean sorted = true;
+			long[] order = new long[list.size()]; // start in the upper, index in the lower 32 bits
+			for (int i = 0; i < order.length; i++) {
+				Region r = regions.get(list.get(i));
+				order[i] = ((long) r.getStart() << 32) | list.get(i);
+				sorted &= i == 0 || order[i - 1] <= order[i];
+			}
+			if (!sorted)
+				Arrays.sort(order);
+
+			int[] regionIndices = new int[order.length];
+			for (int i = 0; i < order.length; i++)
+				regionIndices[i] = (int) order[i];
+			chromosomes.put(chromosome, regionIndices);
+		}
+		return chromosomes;
+	}
+
+	// sweeps the regions (sorted by start) over features sorted by start, features become active when they start
+	// before the stop of the current region and are dropped once they end before its start
+	private static int[][] join(ArrayList<Region> regions, int[] order, int[] starts, int[] ends, int size) {
+		int[][] overlaps = new int[order.length][];
+		int[] active = new int[16];
+		int numberOfActive = 0;
+		int next = 0;
+		int[] overlapping = new int[16];
+
+		for (int i = 0; i < order.length; i++) {
+			Region r = regions.get(order[i]);
+
+			int kept = 0;
+			for (int a = 0; a < numberOfActive; a++)
+				if (ends[active[a]] >= r.getStart())
+					active[kept++] = active[a];
+			numberOfActive = kept;
+			for (; next < size && starts[next] <= r.getStop(); next++)
+				if (ends[next] >= r.getStart()) {
+					if (numberOfActive == active.length)
+						active = Arrays.copyOf(active, 2 * numberOfActive);
+					active[numberOfActive++] = next;
+				}
+
+			// features activated by longer regions may start behind the stop of this one
+			int numberOfOverlaps = 0;
+			for (int a = 0; a < numberOfActive; a++)
+				if (starts[active[a]] <= r.getStop()) {
+					if (numberOfOverlaps == overlapping.length)
+						overlapping = Arrays.copyOf(overlapping, 2 * numberOfOverlaps);
+					overlapping[numberOfOverlaps++] = active[a];
+				}
+			overlaps[i] = Arrays.copyOf(overlapping, numberOfOverlaps);
+		}
+		return overlaps;
+	}
+
+	private static int[] getStarts(RepeatIntervalIndex intervals) {
+		int[] starts = new int[intervals.size()];
+		for (int i = 0; i < starts.length; i++)
+			starts[i] = intervals.getStart(i);
+		return starts;
+	}
+
+	private static int[] getEnds(RepeatIntervalIndex intervals) {
+		int[] ends = new int[intervals.size()];
+		for (int i = 0; i < ends.length; i++)
+			ends[i] = intervals.getEnd(i);
+		return ends;
+	}
+
+	// all genes of a chromosome sorted by start
+	private static ArrayList<Gene> loadGenes(String chromosome) throws SQLException {
+		String query = "SELECT refGene.name, refGene.name2, refGene.txStart, refGene.txEnd, refGene.exonStarts, "
+				+ "refGene.exonEnds, refLink.product FROM " + Config.dbSchema
+				+ ".refGene INNER JOIN  hgFixed.refLink ON refGene.name = refLink.mrnaAcc WHERE chrom = 'chr"
+				+ chromosome + "' ORDER BY refGene.txStart;";
+		ArrayList<Gene> genes = new ArrayList<Gene>(10000);
+
+		DataBase db = new DataBase(Config.dbDriver, Config.dbURL, Config.dbUser, Config.dbPassword);
+		Semaphore databasePermits = ExecutionRuntime.getDatabasePermits();
+		databasePermits.acquireUninterruptibly();
+		try {
+			db.connect();
+			ResultSet rs = db.performStreamingQuery(query, Integer.MIN_VALUE);
+			while (rs.next())
+				genes.add(Annotation.readGene(rs));
+			rs.close();
+			db.disconnect();
+		} finally {
+			databasePermits.release();
+		}
+		return genes;
+	}
+
+	// all DNAse sensitive sites of a chromosome sorted by start
+	private static ArrayList<Region> loadDNaseSensitiveSites(String chromosome) throws SQLException {
+		String query = "SELECT  chrom, chromStart, chromEnd FROM " + Config.dbSchema + ".wgEncodeRegDnaseClustered"
+				+ " WHERE chrom = 'chr" + chromosome + "' ORDER BY chromStart;";
+		ArrayList<Region> sites = new ArrayList<Region>(100000);
+
+		DataBase db = new DataBase(Config.dbDriver, Config.dbURL, Config.dbUser, Config.dbPassword);
+		Semaphore databasePermits = ExecutionRuntime.getDatabasePermits();
+		databasePermits.acquireUninterruptibly();
+		try {
+			db.connect();
+			ResultSet rs = db.performStreamingQuery(query, Integer.MIN_VALUE);
+			while (rs.next())
+				sites.add(new Region(rs.getString("chrom"), rs.getInt("chromStart"), rs.getInt("chromEnd")));
+			rs.close();
+			db.disconnect();
+		} finally {
+			databasePermits.release();
+		}
+		return sites;
+	}
+}
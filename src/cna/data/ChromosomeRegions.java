@@ -0,0 +1,64 @@
+package cna.data;
+
+import java.util.ArrayList;
+
+/**
+ * Represents the regions interpreted as covered on a single chromosome together with partial coverage sums
+ * @author Stefan Grabuschnig
+ *
+ */
+public class ChromosomeRegions {
+	private String chromosome;
+	private RegionSet regions;
+	private double coverageRegions;
+	private double coverageTotal;
+
+	/**
+	 * @param chromosome name of the chromosome
+	 * @param regions regions interpreted as covered
+	 * @param coverageRegions sum of the coverage at or above threshold
+	 * @param coverageTotal sum of the coverage of the chromosome
+	 */
+	public ChromosomeRegions(String chromosome, RegionSet regions, double coverageRegions,
+			double coverageTotal) {
+		this.chromosome = chromosome;
+		this.regions = regions;
+		this.coverageRegions = coverageRegions;
+		this.coverageTotal = coverageTotal;
+	}
+
+	/**
+	 * @return the name of the chromosome
+	 */
+	public String getChromosome() {
+		return this.chromosome;
+	}
+
+	/**
+	 * @return the regions interpreted as covered
+	 */
+	public ArrayList<Region> getRegions() {
+		return this.regions.toList();
+	}
+
+	/**
+	 * @return the regions interpreted as covered in columnar form
+	 */
+	public RegionSet getRegionSet() {
+		return this.regions;
+	}
+
+	/**
+	 * @return the sum of the coverage at or above threshold
+	 */
+	public double getCoverageRegions() {
+		return this.coverageRegions;
+	}
+
+	/**
+	 * @return the sum of the coverage of the chromosome
+	 */
+	public double getCoverageTotal() {
+		return this.coverageTotal;
+	}
+}
@@ -0,0 +1,199 @@
+package cna.data;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.ObjectStreamConstants;
+import java.nio.ByteBuffer;
+import java.nio.FloatBuffer;
+import java.nio.IntBuffer;
+
+import net.jpountz.lz4.LZ4FrameInputStream;
+
+/**
+ * Forward-only cursor over a compressed coverage track. Delivers the coverage in fixed-size chunks in order of
+ * position without materializing the whole chromosome. Chunk buffers are reused, the content of a chunk is only valid
+ * until the next call of next().
+ * @author Stefan Grabuschnig
+ *
+ */
+public class CoverageCursor implements Closeable {
+
+	/**
+	 * default number of positions per chunk
+	 */
+	public static final int DEFAULT_CHUNK_SIZE = 1 << 16;
+
+	/**
+	 * approximate memory of an open cursor with default chunk size (bytes): chunk buffers plus compressed and
+	 * decompressed LZ4 frame blocks (4 MB each)
+	 */
+	public static final long DEFAULT_FOOTPRINT = 8L * CoverageCursor.DEFAULT_CHUNK_SIZE + (8L << 20);
+
+	private DataInputStream in;
+	private boolean floatTrack;
+	private int trackLength;
+	private int rangeEnd;
+	private int position;
+	private int chunkStart;
+	private int chunkLength;
+
+	private byte[] bytes;
+	private IntBuffer intView;
+	private FloatBuffer floatView;
+	private int[] intChunk;
+	private float[] floatChunk;
+
+	/**
+	 * opens a cursor over the complete track
+	 * @param file compressed coverage file (int or float array)
+	 * @param chunkSize number of positions per chunk
+	 * @throws IOException if the file cannot be read or is not a coverage track
+	 */
+	public CoverageCursor(File file, int chunkSize) throws IOException {
+		this(file, chunkSize, 0, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * opens a cursor over a range of the track
+	 * @param file compressed coverage file (int or float array)
+	 * @param chunkSize number of positions per chunk
+	 * @param from first position (zero based, inclusive)
+	 * @param to last position (zero based, exclusive). Values beyond the track length are truncated.
+	 * @throws IOException if the file cannot be read or is not a coverage track
+	 */
+	public CoverageCursor(File file, int chunkSize, int from, int to) throws IOException {
+		this.in = new DataInputStream(new LZ4FrameInputStream(new BufferedInputStream(new FileInputStream(file))));
+		this.readHeader();
+
+		this.bytes = new byte[4 * chunkSize];
+		if (this.floatTrack) {
+			this.floatView = ByteBuffer.wrap(this.bytes).asFloatBuffer();
+			this.floatChunk = new float[chunkSize];
+		} else {
+			this.intView = ByteBuffer.wrap(this.bytes).asIntBuffer();
+			this.intChunk = new int[chunkSize];
+		}
+
+		this.rangeEnd = Math.min(to, this.trackLength);
+		this.position = 0;
+		this.chunkStart = 0;
+		this.chunkLength = 0;
+
+		// skip positions in front of the range
+		while (this.position < from && this.position < this.rangeEnd) {
+			int n = Math.min(chunkSize, from - this.position);
+			this.in.readFully(this.bytes, 0, 4 * n);
+			this.position += n;
+		}
+		this.chunkStart = this.position;
+	}
+
+	/**
+	 * Coverage arrays are stored as serialized java arrays. The header of a serialized primitive array is followed by
+	 * the raw big-endian array elements, which allows streaming them without deserializing the whole array.
+	 */
+	private void readHeader() throws IOException {
+		if (this.in.readShort() != ObjectStreamConstants.STREAM_MAGIC
+				|| this.in.readShort() != ObjectStreamConstants.STREAM_VERSION
+				|| this.in.readByte() != ObjectStreamConstants.TC_ARRAY
+				|| this.in.readByte() != ObjectStreamConstants.TC_CLASSDESC)
+			throw new IOException("Not a serialized coverage array");
+
+		String className = this.in.readUTF();
+		if (className.equals("[I"))
+			this.floatTrack = false;
+		else if (className.equals("[F"))
+			this.floatTrack = true;
+		else
+			throw new IOException("Unsupported coverage array type " + className);
+
+		this.in.readLong(); // serialVersionUID
+		this.in.readByte(); // class descriptor flags
+		if (this.in.readShort() != 0 // number of fields
+				|| this.in.readByte() != ObjectStreamConstants.TC_ENDBLOCKDATA
+				|| this.in.readByte() != ObjectStreamConstants.TC_NULL) // super class
+			throw new IOException("Not a serialized coverage array");
+
+		this.trackLength = this.in.readInt();
+	}
+
+	/**
+	 * advances the cursor to the next chunk
+	 * @return false if the end of the track (or range) was reached
+	 * @throws IOException if the file cannot be read
+	 */
+	public boolean next() throws IOException {
+		this.chunkStart = this.position;
+		if (this.floatTrack)
+			this.chunkLength = Math.min(this.floatChunk.length, this.rangeEnd - this.position);
+		else
+			this.chunkLength = Math.min(this.intChunk.length, this.rangeEnd - this.position);
+
+		if (this.chunkLength <= 0) {
+			this.chunkLength = 0;
+			return false;
+		}
+
+		this.in.readFully(this.bytes, 0, 4 * this.chunkLength);
+		if (this.floatTrack) {
+			this.floatView.rewind();
+			this.floatView.get(this.floatChunk, 0, this.chunkLength);
+		} else {
+			this.intView.rewind();
+			this.intView.get(this.intChunk, 0, this.chunkLength);
+		}
+		this.position += this.chunkLength;
+		return true;
+	}
+
+	/**
+	 * @return true if the track contains normalized (float) coverage, false for absolute (int) coverage
+	 */
+	public boolean isFloatTrack() {
+		return this.floatTrack;
+	}
+
+	/**
+	 * @return the length of the complete track
+	 */
+	public int getTrackLength() {
+		return this.trackLength;
+	}
+
+	/**
+	 * @return the position of the first element of the current chunk
+	 */
+	public int getChunkStart() {
+		return this.chunkStart;
+	}
+
+	/**
+	 * @return the number of valid elements in the current chunk
+	 */
+	public int getChunkLength() {
+		return this.chunkLength;
+	}
+
+	/**
+	 * @return the current chunk of an absolute coverage track
+	 */
+	public int[] getIntChunk() {
+		return this.intChunk;
+	}
+
+	/**
+	 * @return the current chunk of a normalized coverage track
+	 */
+	public float[] getFloatChunk() {
+		return this.floatChunk;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.in.close();
+	}
+}
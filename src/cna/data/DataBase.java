@@ -95,6 +95,34 @@ public class DataBase {
 		return rs;
 	}
 
+	/**
+	 * performs an sql query and streams the result instead of loading it into memory at once. The statement is forward
+	 * only and read only, MySQL Connector/J streams row by row with fetch size Integer.MIN_VALUE and uses server-side
+	 * cursors for positive fetch sizes if useCursorFetch is set in the url.
+	 * @param query the sql query
+	 * @param fetchSize number of rows fetched per round-trip
+	 * @return the ResultSet (the connection must not be used for other queries until it is closed)
+	 */
+	public ResultSet performStreamingQuery(String query, int fetchSize) {
+		ResultSet rs = null;
+		if (this.connected) {
+			try {
+				Statement streamingStatement = connection.createStatement(ResultSet.TYPE_FORWARD_ONLY,
+						ResultSet.CONCUR_READ_ONLY);
+				streamingStatement.setFetchSize(fetchSize);
+				rs = streamingStatement.executeQuery(query);
+			} catch (SQLException e) {
+				System.out.println(new Timestamp(System.currentTimeMillis()).toString()
+						+ ": SQLException in DataBase.performStreamingQuery()");
+				System.out.println(e.getMessage());
+			}
+		} else {
+			System.out.println(new Timestamp(System.currentTimeMillis()).toString()
+					+ ": Error in DataBase.performStreamingQuery(). No connection established");
+		}
+		return rs;
+	}
+
 	/**
 	 * @return the connection state
 	 */
@@ -5,6 +5,7 @@ import java.io.File;
 import java.io.IOException;
 import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.SortedSet;
 import java.util.TreeSet;
 
@@ -33,6 +34,15 @@ public class DataSet {
 	 * @param taskXML an xml file defining the respective genome and all alignment files in the data set
 	 */
 	public DataSet(String taskXML) {
+		this(taskXML, null);
+	}
+
+	/**
+	 * @param taskXML an xml file defining the respective genome and all alignment files in the data set
+	 * @param repeatFamilies names of the repeat families whose coverage is counted when the coverage of new
+	 *            alignments is calculated (see CompositionAnalysis.calculateCompositions), null to skip counting
+	 */
+	public DataSet(String taskXML, List<String> repeatFamilies) {
 		this.labels = new HashMap<String, Label>(10);
 		this.individuals = new HashMap<String, Individual>(1000);
 		this.alignments = new HashMap<String, Alignment>(10000);
@@ -106,7 +116,8 @@ public class DataSet {
 				}
 
 				this.alignments.put(alignmentID,
-						new Alignment(alignmentID, individual, bamFilePath, time, infectionState, this.genome));
+						new Alignment(alignmentID, individual, bamFilePath, time, infectionState, this.genome,
+								repeatFamilies));
 				individual.addAlignment(this.alignments.get(alignmentID));
 
 				// add time to list of times
@@ -0,0 +1,76 @@
+package cna.data;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+import cna.parallel.CoverageKernel;
+import cna.parallel.CoverageKernels;
+
+/**
+ * Streams the mean normalized coverage of multiple alignments for a chromosome in chunks. The mean of each chunk is
+ * summed in order of the alignments, so that it equals the materialized mean. Peak memory is one chunk per alignment.
+ * The content of a chunk is only valid until the next call of next().
+ * @author Stefan Grabuschnig
+ *
+ */
+public class MeanCoverageCursor implements Closeable {
+	private final CoverageKernel kernel = CoverageKernels.get();
+	private MultiCoverageCursor cursor;
+	private float[] mean;
+
+	/**
+	 * @param alignments list of alignments
+	 * @param chromosome name of the chromosome
+	 * @param chunkSize number of positions per chunk
+	 * @throws IOException if a coverage file cannot be read
+	 */
+	public MeanCoverageCursor(ArrayList<Alignment> alignments, String chromosome, int chunkSize) throws IOException {
+		this.cursor = new MultiCoverageCursor(alignments, chromosome, true, chunkSize);
+		this.mean = new float[chunkSize];
+	}
+
+	/**
+	 * advances to the next chunk and computes its mean
+	 * @return false if the end of the track was reached
+	 * @throws IOException if a coverage file cannot be read
+	 */
+	public boolean next() throws IOException {
+		if (!this.cursor.next())
+			return false;
+
+		int length = this.cursor.getChunkLength();
+		Arrays.fill(this.mean, 0, length, 0.0f);
+		for (int a = 0; a < this.cursor.size(); a++)
+			this.kernel.add(this.mean, this.cursor.getFloatChunk(a), 0, length);
+		this.kernel.divide(this.mean, this.cursor.size(), 0, length);
+		return true;
+	}
+
+	/**
+	 * @return the position of the first element of the current chunk
+	 */
+	public int getChunkStart() {
+		return this.cursor.getChunkStart();
+	}
+
+	/**
+	 * @return the number of valid elements in the current chunk
+	 */
+	public int getChunkLength() {
+		return this.cursor.getChunkLength();
+	}
+
+	/**
+	 * @return the mean normalized coverage of the current chunk
+	 */
+	public float[] getMeanChunk() {
+		return this.mean;
+	}
+
+	@Override
+	public void close() throws IOException {
+		this.cursor.close();
+	}
+}
@@ -0,0 +1,109 @@
+package cna.data;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+
+/**
+ * Zips the coverage cursors of multiple alignments for the same chromosome. All cursors advance together, so chunk i
+ * of every alignment covers the same positions. Peak memory is one chunk per alignment.
+ * @author Stefan Grabuschnig
+ *
+ */
+public class MultiCoverageCursor implements Closeable {
+
+	private CoverageCursor[] cursors;
+
+	/**
+	 * @param alignments list of alignments
+	 * @param chromosome name of the chromosome
+	 * @param normalized true for normalized coverage, false for absolute coverage
+	 * @param chunkSize number of positions per chunk
+	 * @throws IOException if a coverage file cannot be read
+	 */
+	public MultiCoverageCursor(ArrayList<Alignment> alignments, String chromosome, boolean normalized, int chunkSize)
+			throws IOException {
+		this(alignments, chromosome, normalized, chunkSize, 0, Integer.MAX_VALUE);
+	}
+
+	/**
+	 * @param alignments list of alignments
+	 * @param chromosome name of the chromosome
+	 * @param normalized true for normalized coverage, false for absolute coverage
+	 * @param chunkSize number of positions per chunk
+	 * @param from first position (zero based, inclusive)
+	 * @param to last position (zero based, exclusive)
+	 * @throws IOException if a coverage file cannot be read
+	 */
+	public MultiCoverageCursor(ArrayList<Alignment> alignments, String chromosome, boolean normalized, int chunkSize,
+			int from, int to) throws IOException {
+		this.cursors = new CoverageCursor[alignments.size()];
+
+		try {
+			for (int i = 0; i < this.cursors.length; i++)
+				if (normalized)
+					this.cursors[i] = alignments.get(i).openNormalizedCoverageCursor(chromosome, chunkSize, from, to);
+				else
+					this.cursors[i] = alignments.get(i).openAbsoluteCoverageCursor(chromosome, chunkSize, from, to);
+		} catch (IOException e) {
+			this.close();
+			throw e;
+		}
+	}
+
+	/**
+	 * advances all cursors to the next chunk
+	 * @return false if the end of the track (or range) was reached
+	 * @throws IOException if a coverage file cannot be read
+	 */
+	public boolean next() throws IOException {
+		boolean hasNext = true;
+		for (CoverageCursor cursor : this.cursors)
+			hasNext &= cursor.next();
+		return hasNext && this.cursors.length > 0;
+	}
+
+	/**
+	 * @return the number of zipped alignments
+	 */
+	public int size() {
+		return this.cursors.length;
+	}
+
+	/**
+	 * @return the position of the first element of the current chunk
+	 */
+	public int getChunkStart() {
+		return this.cursors[0].getChunkStart();
+	}
+
+	/**
+	 * @return the number of valid elements in the current chunk
+	 */
+	public int getChunkLength() {
+		return this.cursors[0].getChunkLength();
+	}
+
+	/**
+	 * @param index index of the alignment
+	 * @return the current chunk of the absolute coverage of the alignment
+	 */
+	public int[] getIntChunk(int index) {
+		return this.cursors[index].getIntChunk();
+	}
+
+	/**
+	 * @param index index of the alignment
+	 * @return the current chunk of the normalized coverage of the alignment
+	 */
+	public float[] getFloatChunk(int index) {
+		return this.cursors[index].getFloatChunk();
+	}
+
+	@Override
+	public void close() throws IOException {
+		for (CoverageCursor cursor : this.cursors)
+			if (cursor != null)
+				cursor.close();
+	}
+}
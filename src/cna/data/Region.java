@@ -22,7 +22,6 @@ public class Region implements Comparable<Region>{
 		this.chromosome = chromosome;
 		this.start = start;
 		this.stop = stop;
-		this.name = this.chromosome + "-" + this.start + "-" + this.stop;
 	}
 	
 	/**
@@ -39,9 +38,18 @@ public class Region implements Comparable<Region>{
 	}
 	
 	/**
-	 * @return rhe name of the region if set
+	 * @return rhe name of the region if set, otherwise chromosome-start-stop (built on first use)
 	 */
 	public String getName() {
+		if (this.name == null)
+			this.name = this.chromosome + "-" + this.start + "-" + this.stop;
+		return this.name;
+	}
+
+	/**
+	 * @return the name of the region if set explicitly, otherwise null
+	 */
+	String getExplicitName() {
 		return this.name;
 	}
 	
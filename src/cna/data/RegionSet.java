@@ -0,0 +1,464 @@
+package cna.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.concurrent.RecursiveAction;
+
+import cna.parallel.ExecutionRuntime;
+
+/**
+ * Represents a set of regions in columnar form: a contig index and primitive start and stop arrays (12 bytes per
+ * region). Names are only stored if set explicitly, otherwise they are built on request. Provides functionality to
+ * sort regions by position or size and for set operations (merge, intersect, subtract, complement and overlap of
+ * several sets). Coordinates are zero based and inclusive like those of Region.
+ * @author Stefan Grabuschnig
+ *
+ */
+public class RegionSet {
+	private ArrayList<String> contigs;
+	private HashMap<String, Integer> contigIndices;
+
+	private int size = 0;
+	private int[] contig;
+	private int[] start;
+	private int[] stop;
+	private String[] names = null; // only allocated if a name is set explicitly
+	private boolean sortedByPosition = true;
+
+	/**
+	 * creates an empty set
+	 */
+	public RegionSet() {
+		this(16);
+	}
+
+	/**
+	 * @param capacity initial number of regions
+	 */
+	public RegionSet(int capacity) {
+		this.contigs = new ArrayList<String>();
+		this.contigIndices = new HashMap<String, Integer>();
+		this.contig = new int[Math.max(1, capacity)];
+		this.start = new int[this.contig.length];
+		this.stop = new int[this.contig.length];
+	}
+
+	/**
+	 * @param regions list of regions
+	 */
+	public RegionSet(Collection<Region> regions) {
+		this(regions.size());
+		this.addAll(regions);
+	}
+
+	// empty set sharing the contig order of another set
+	private RegionSet(RegionSet template, int capacity) {
+		this(capacity);
+		for (String name : template.contigs)
+			this.getContigIndex(name);
+	}
+
+	/**
+	 * @param chromosome name of the chromosome
+	 * @param start start coordinate
+	 * @param stop stop coordinate
+	 */
+	public void add(String chromosome, int start, int stop) {
+		this.add(this.getContigIndex(chromosome), start, stop);
+	}
+
+	/**
+	 * @param name name of the region
+	 * @param chromosome name of the chromosome
+	 * @param start start coordinate
+	 * @param stop stop coordinate
+	 */
+	public void add(String name, String chromosome, int start, int stop) {
+		this.add(chromosome, start, stop);
+		if (name != null) {
+			if (this.names == null)
+				this.names = new String[this.contig.length];
+			this.names[this.size - 1] = name;
+		}
+	}
+
+	/**
+	 * @param region region to add
+	 */
+	public void add(Region region) {
+		this.add(region.getExplicitName(), region.getChromosome(), region.getStart(), region.getStop());
+	}
+
+	/**
+	 * @param regions list of regions
+	 */
+	public void addAll(Collection<Region> regions) {
+		this.ensureCapacity(this.size + regions.size());
+		for (Region region : regions)
+			this.add(region);
+	}
+
+	/**
+	 * @param regions set of regions
+	 */
+	public void addAll(RegionSet regions) {
+		this.ensureCapacity(this.size + regions.size);
+		for (int i = 0; i < regions.size; i++)
+			if (regions.names != null && regions.names[i] != null)
+				this.add(regions.names[i], regions.getChromosome(i), regions.start[i], regions.stop[i]);
+			else
+				this.add(regions.getChromosome(i), regions.start[i], regions.stop[i]);
+	}
+
+	private void add(int contig, int start, int stop) {
+		this.ensureCapacity(this.size + 1);
+		if (this.size > 0 && (contig < this.contig[this.size - 1]
+				|| (contig == this.contig[this.size - 1] && start < this.start[this.size - 1])))
+			this.sortedByPosition = false;
+		this.contig[this.size] = contig;
+		this.start[this.size] = start;
+		this.stop[this.size] = stop;
+		this.size++;
+	}
+
+	private int getContigIndex(String chromosome) {
+		Integer index = this.contigIndices.get(chromosome);
+		if (index == null) {
+			index = this.contigs.size();
+			this.contigs.add(chromosome);
+			this.contigIndices.put(chromosome, index);
+		}
+		return index;
+	}
+
+	private void ensureCapacity(int capacity) {
+		if (capacity <= this.contig.length)
+			return;
+		int length = Math.max(capacity, this.contig.length + (this.contig.length >> 1));
+		this.contig = Arrays.copyOf(this.contig, length);
+		this.start = Arrays.copyOf(this.start, length);
+		this.stop = Arrays.copyOf(this.stop, length);
+		if (this.names != null)
+			this.names = Arrays.copyOf(this.names, length);
+	}
+
+	/**
+	 * @return the number of regions
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * @param index index of the region
+	 * @return the name of the chromosome
+	 */
+	public String getChromosome(int index) {
+		return this.contigs.get(this.contig[index]);
+	}
+
+	/**
+	 * @param index index of the region
+	 * @return the start coordinate of the region
+	 */
+	public int getStart(int index) {
+		return this.start[index];
+	}
+
+	/**
+	 * @param index index of the region
+	 * @return the stop coordinate of the region
+	 */
+	public int getStop(int index) {
+		return this.stop[index];
+	}
+
+	/**
+	 * @param index index of the region
+	 * @return the size of the region (in base pairs)
+	 */
+	public int getSize(int index) {
+		return this.stop[index] - this.start[index] + 1;
+	}
+
+	/**
+	 * @param index index of the region
+	 * @return the name of the region if set, otherwise chromosome-start-stop
+	 */
+	public String getName(int index) {
+		if (this.names != null && this.names[index] != null)
+			return this.names[index];
+		return this.getChromosome(index) + "-" + this.start[index] + "-" + this.stop[index];
+	}
+
+	/**
+	 * @param index index of the region
+	 * @return the region as object
+	 */
+	public Region get(int index) {
+		if (this.names != null && this.names[index] != null)
+			return new Region(this.names[index], this.getChromosome(index), this.start[index], this.stop[index]);
+		return new Region(this.getChromosome(index), this.start[index], this.stop[index]);
+	}
+
+	/**
+	 * @return all regions as objects
+	 */
+	public ArrayList<Region> toList() {
+		ArrayList<Region> regions = new ArrayList<Region>(this.size);
+		for (int i = 0; i < this.size; i++)
+			regions.add(this.get(i));
+		return regions;
+	}
+
+	/**
+	 * @return the sum of the sizes of all regions (in base pairs)
+	 */
+	public long getTotalSize() {
+		long totalSize = 0;
+		for (int i = 0; i < this.size; i++)
+			totalSize += this.getSize(i);
+		return totalSize;
+	}
+
+	/**
+	 * @return true if the regions are sorted by chromosome (in order of first occurrence) and start coordinate
+	 */
+	public boolean isSortedByPosition() {
+		return this.sortedByPosition;
+	}
+
+	/**
+	 * Sorts the regions by chromosome (in order of first occurrence) and start coordinate. Regions with equal start
+	 * keep their order.
+	 */
+	public void sortByPosition() {
+		if (this.sortedByPosition)
+			return;
+
+		// group by contig (counting sort)
+		int[] contigStarts = new int[this.contigs.size() + 1];
+		for (int i = 0; i < this.size; i++)
+			contigStarts[this.contig[i] + 1]++;
+		for (int c = 0; c < this.contigs.size(); c++)
+			contigStarts[c + 1] += contigStarts[c];
+		int[] grouped = new int[this.size];
+		int[] next = Arrays.copyOf(contigStarts, this.contigs.size());
+		for (int i = 0; i < this.size; i++)
+			grouped[next[this.contig[i]]++] = i;
+
+		// sort by start within contigs, the index in the lower bits keeps ties stable
+		long[] keys = new long[this.size];
+		for (int i = 0; i < this.size; i++)
+			keys[i] = ((long) this.start[grouped[i]] << 32) | i;
+		for (int c = 0; c < this.contigs.size(); c++)
+			RegionSet.parallelSort(keys, contigStarts[c], contigStarts[c + 1]);
+
+		int[] permutation = new int[this.size];
+		for (int i = 0; i < this.size; i++)
+			permutation[i] = grouped[(int) keys[i]];
+		this.permute(permutation);
+		this.sortedByPosition = true;
+	}
+
+	/**
+	 * Sorts the regions by size like Region.compareTo. Regions of equal size keep their order.
+	 */
+	public void sortBySize() {
+		long[] keys = new long[this.size];
+		for (int i = 0; i < this.size; i++)
+			keys[i] = ((long) this.getSize(i) << 32) | i;
+		RegionSet.parallelSort(keys, 0, this.size);
+
+		int[] permutation = new int[this.size];
+		for (int i = 0; i < this.size; i++)
+			permutation[i] = (int) keys[i];
+		this.permute(permutation);
+		this.sortedByPosition = this.size < 2;
+	}
+
+	private void permute(int[] permutation) {
+		int[] contig = new int[this.contig.length];
+		int[] start = new int[this.contig.length];
+		int[] stop = new int[this.contig.length];
+		String[] names = this.names == null ? null : new String[this.contig.length];
+		for (int i = 0; i < this.size; i++) {
+			contig[i] = this.contig[permutation[i]];
+			start[i] = this.start[permutation[i]];
+			stop[i] = this.stop[permutation[i]];
+			if (names != null)
+				names[i] = this.names[permutation[i]];
+		}
+		this.contig = contig;
+		this.start = start;
+		this.stop = stop;
+		this.names = names;
+	}
+
+	private static void parallelSort(final long[] keys, final int from, final int to) {
+		// sort tasks are forked into the CPU pool of the execution runtime
+		ExecutionRuntime.getCpuPool().invoke(new RecursiveAction() {
+			private static final long serialVersionUID = 1L;
+
+			@Override
+			protected void compute() {
+				Arrays.parallelSort(keys, from, to);
+			}
+		});
+	}
+
+	private RegionSet sortedCopy() {
+		RegionSet copy = new RegionSet(this, this.size);
+		copy.addAll(this);
+		copy.sortByPosition();
+		return copy;
+	}
+
+	/**
+	 * @return a new set (sorted by position, without names) in which overlapping and adjacent regions are merged
+	 */
+	public RegionSet merge() {
+		RegionSet sorted = this.sortedByPosition ? this : this.sortedCopy();
+		RegionSet merged = new RegionSet(this, this.size);
+
+		for (int i = 0; i < sorted.size; i++) {
+			int last = merged.size - 1;
+			if (last >= 0 && merged.contig[last] == sorted.contig[i]
+					&& sorted.start[i] <= (long) merged.stop[last] + 1)
+				merged.stop[last] = Math.max(merged.stop[last], sorted.stop[i]);
+			else
+				merged.add(sorted.contig[i], sorted.start[i], sorted.stop[i]);
+		}
+		return merged;
+	}
+
+	/**
+	 * @param other set of regions
+	 * @return a new set (sorted by position, merged) of all positions covered by both sets
+	 */
+	public RegionSet intersect(RegionSet other) {
+		return RegionSet.overlap(new RegionSet[] { this, other }, 2);
+	}
+
+	/**
+	 * @param other set of regions
+	 * @return a new set (sorted by position, without names) of the parts of each region not covered by the other set
+	 */
+	public RegionSet subtract(RegionSet other) {
+		RegionSet sorted = this.sortedByPosition ? this : this.sortedCopy();
+		RegionSet mask = other.merge();
+		RegionSet result = new RegionSet(this, this.size);
+
+		// range of each contig in the mask, next mask region per contig
+		int[] maskFrom = new int[mask.contigs.size()];
+		int[] maskTo = new int[mask.contigs.size()];
+		Arrays.fill(maskFrom, mask.size);
+		for (int i = mask.size - 1; i >= 0; i--)
+			maskFrom[mask.contig[i]] = i;
+		for (int i = 0; i < mask.size; i++)
+			maskTo[mask.contig[i]] = i + 1;
+
+		for (int i = 0; i < sorted.size; i++) {
+			Integer maskContig = mask.contigIndices.get(sorted.getChromosome(i));
+			int position = sorted.start[i];
+
+			if (maskContig != null) {
+				// mask regions are disjoint and sorted, region starts do not decrease within a contig
+				int m = maskFrom[maskContig];
+				while (m < maskTo[maskContig] && mask.stop[m] < sorted.start[i])
+					m++;
+				maskFrom[maskContig] = m;
+
+				for (; m < maskTo[maskContig] && mask.start[m] <= sorted.stop[i]; m++) {
+					if (mask.start[m] > position)
+						result.add(sorted.contig[i], position, mask.start[m] - 1);
+					position = Math.max(position, mask.stop[m] + 1);
+				}
+			}
+			if (position <= sorted.stop[i])
+				result.add(sorted.contig[i], position, sorted.stop[i]);
+		}
+		return result;
+	}
+
+	/**
+	 * @param genome the considered genome
+	 * @return a new set (in order of the chromosomes of the genome) of all positions not covered by any region
+	 */
+	public RegionSet complement(Genome genome) {
+		RegionSet merged = this.merge();
+		RegionSet complement = new RegionSet(merged.size + genome.getNumberOfChromosomes());
+
+		int[] contigFrom = new int[merged.contigs.size()];
+		int[] contigTo = new int[merged.contigs.size()];
+		for (int i = merged.size - 1; i >= 0; i--)
+			contigFrom[merged.contig[i]] = i;
+		for (int i = 0; i < merged.size; i++)
+			contigTo[merged.contig[i]] = i + 1;
+
+		for (String chromosome : genome.getChromosomeNames()) {
+			int position = 0;
+			Integer contig = merged.contigIndices.get(chromosome);
+			if (contig != null)
+				for (int i = contigFrom[contig]; i < contigTo[contig]; i++) {
+					if (merged.start[i] > position)
+						complement.add(chromosome, position, merged.start[i] - 1);
+					position = Math.max(position, merged.stop[i] + 1);
+				}
+			if (position < genome.getChromosomeSize(chromosome))
+				complement.add(chromosome, position, genome.getChromosomeSize(chromosome) - 1);
+		}
+		return complement;
+	}
+
+	/**
+	 * k-way overlap join: sweeps over the boundaries of all sets at once
+	 * @param sets sets of regions
+	 * @param k minimum number of sets covering a position
+	 * @return a new set (sorted by position, merged) of all positions covered by at least k of the sets
+	 */
+	public static RegionSet overlap(RegionSet[] sets, int k) {
+		if (sets.length == 0)
+			return new RegionSet();
+		RegionSet result = new RegionSet(sets[0], 16);
+
+		// boundaries of the merged sets: contig, position and type (start before end at the same position)
+		RegionSet[] merged = new RegionSet[sets.length];
+		int numberOfBoundaries = 0;
+		for (int s = 0; s < sets.length; s++) {
+			merged[s] = sets[s].merge();
+			numberOfBoundaries += 2 * merged[s].size;
+			for (String name : merged[s].contigs)
+				result.getContigIndex(name);
+		}
+
+		long[] boundaries = new long[numberOfBoundaries];
+		int b = 0;
+		for (RegionSet set : merged)
+			for (int i = 0; i < set.size; i++) {
+				long contig = (long) result.contigIndices.get(set.getChromosome(i)) << 33;
+				boundaries[b++] = contig | ((long) set.start[i] << 1);
+				boundaries[b++] = contig | (((long) set.stop[i] + 1) << 1) | 1;
+			}
+		RegionSet.parallelSort(boundaries, 0, boundaries.length);
+
+		int coverage = 0;
+		int regionStart = -1;
+		for (int i = 0; i < boundaries.length;) {
+			long position = boundaries[i] >>> 1;
+			int before = coverage;
+			for (; i < boundaries.length && (boundaries[i] >>> 1) == position; i++)
+				coverage += (boundaries[i] & 1) == 0 ? 1 : -1;
+
+			int contig = (int) (position >>> 32);
+			int coordinate = (int) (position & 0xffffffffL);
+			if (before < k && coverage >= k)
+				regionStart = coordinate;
+			else if (before >= k && coverage < k)
+				result.add(contig, regionStart, coordinate - 1);
+		}
+		return result;
+	}
+}
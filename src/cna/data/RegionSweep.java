@@ -0,0 +1,99 @@
+package cna.data;
+
+/**
+ * Represents the regions interpreted as covered for several thresholds and size windows together with the coverage
+ * attributed to regions for each threshold. Regions are stored in chromosome order.
+ * @author Stefan Grabuschnig
+ *
+ */
+public class RegionSweep {
+	private double[] thresholds;
+	private int[] minSizes;
+	private int[] maxSizes;
+	private RegionSet[] regions;
+	private double[] coverageRegions;
+	private double coverageTotal;
+
+	/**
+	 * @param thresholds thresholds for coverage interpretation (sorted ascending)
+	 * @param minSizes minimum sizes for a region classified as covered (one per size window)
+	 * @param maxSizes maximum sizes for a region classified as covered (one per size window)
+	 */
+	public RegionSweep(double[] thresholds, int[] minSizes, int[] maxSizes) {
+		this.thresholds = thresholds;
+		this.minSizes = minSizes;
+		this.maxSizes = maxSizes;
+		this.regions = new RegionSet[thresholds.length * minSizes.length];
+		for (int i = 0; i < this.regions.length; i++)
+			this.regions[i] = new RegionSet();
+		this.coverageRegions = new double[thresholds.length];
+		this.coverageTotal = 0;
+	}
+
+	/**
+	 * Adds the results of a chromosome (call in chromosome order), coverage sums are continued with the partial sums of
+	 * the chromosome
+	 * @param chromosomeRegions results of the chromosome for each threshold and size window
+	 */
+	public void add(ChromosomeRegions[][] chromosomeRegions) {
+		for (int t = 0; t < this.thresholds.length; t++) {
+			for (int w = 0; w < this.minSizes.length; w++)
+				this.getRegions(t, w).addAll(chromosomeRegions[t][w].getRegionSet());
+			this.coverageRegions[t] += chromosomeRegions[t][0].getCoverageRegions();
+		}
+		this.coverageTotal += chromosomeRegions[0][0].getCoverageTotal();
+	}
+
+	/**
+	 * @return the thresholds for coverage interpretation (sorted ascending)
+	 */
+	public double[] getThresholds() {
+		return this.thresholds;
+	}
+
+	/**
+	 * @return the minimum sizes of the size windows
+	 */
+	public int[] getMinSizes() {
+		return this.minSizes;
+	}
+
+	/**
+	 * @return the maximum sizes of the size windows
+	 */
+	public int[] getMaxSizes() {
+		return this.maxSizes;
+	}
+
+	/**
+	 * @param threshold index of the threshold
+	 * @param window index of the size window
+	 * @return the regions interpreted as covered for the threshold and size window
+	 */
+	public RegionSet getRegions(int threshold, int window) {
+		return this.regions[threshold * this.minSizes.length + window];
+	}
+
+	/**
+	 * @param threshold index of the threshold
+	 * @return the sum of the coverage at or above threshold
+	 */
+	public double getCoverageRegions(int threshold) {
+		return this.coverageRegions[threshold];
+	}
+
+	/**
+	 * @return the sum of the coverage of all chromosomes
+	 */
+	public double getCoverageTotal() {
+		return this.coverageTotal;
+	}
+
+	/**
+	 * @param threshold index of the threshold
+	 * @return the percentage of the total coverage attributed to regions
+	 */
+	public double getAttributedPercentage(int threshold) {
+		return 100.0 * this.coverageRegions[threshold] / this.coverageTotal;
+	}
+}
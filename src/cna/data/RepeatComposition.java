@@ -0,0 +1,147 @@
+package cna.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.List;
+
+import cna.config.Config;
+import cna.parallel.CoverageKernel;
+import cna.parallel.CoverageKernels;
+import net.jpountz.lz4.LZ4FrameInputStream;
+import net.jpountz.lz4.LZ4FrameOutputStream;
+
+/**
+ * Stores the absolute coverage of an alignment per repeat family for a set of considered repeat families. For every
+ * chromosome the coverage is summed per family (followed by other repeats and non repetitive positions) and number
+ * of families sharing the positions, exactly as in CompositionAnalysis.calculateCompositions. Counted at ingest
+ * while the coverage is in memory and persisted next to the coverage data, so that compositions of new samples do
+ * not require reading the coverage tracks.
+ * @author Stefan Grabuschnig
+ *
+ */
+public class RepeatComposition {
+	private static final int MAGIC = 0x524d5343;
+
+	private String schema;
+	private String[] repeatFamilies;
+	private LinkedHashMap<String, long[][]> chromosomes;
+
+	/**
+	 * instantiates empty counts (no chromosomes yet) for the annotation of the configured schema
+	 * @param repeatFamilies names of the considered repeat families
+	 */
+	public RepeatComposition(List<String> repeatFamilies) {
+		this.schema = Config.dbSchema;
+		this.repeatFamilies = repeatFamilies.toArray(new String[repeatFamilies.size()]);
+		this.chromosomes = new LinkedHashMap<String, long[][]>(100);
+	}
+
+	/**
+	 * counts and adds the coverage of a chromosome
+	 * @param chromosome name of the chromosome
+	 * @param labels family label track of the chromosome for the considered repeat families
+	 * @param absoluteCoverage absolute coverage of the chromosome
+	 */
+	public void addChromosome(String chromosome, RepeatLabelTrack labels, int[] absoluteCoverage) {
+		long[] combinationCoverages = new long[labels.getNumberOfCombinations()];
+		CoverageKernel kernel = CoverageKernels.get();
+		for (int segment = 0; segment < labels.getNumberOfSegments(); segment++)
+			combinationCoverages[labels.getSegmentCombination(segment)] += kernel.sum(absoluteCoverage,
+					Math.min(labels.getSegmentStart(segment), absoluteCoverage.length),
+					Math.min(labels.getSegmentEnd(segment), absoluteCoverage.length));
+		this.chromosomes.put(chromosome, labels.getFamilyCoverages(combinationCoverages));
+	}
+
+	/**
+	 * @param repeatFamilies names of the considered repeat families
+	 * @return true if the counts were made for the repeat families (in this order) and the configured schema
+	 */
+	public boolean isBuiltFor(List<String> repeatFamilies) {
+		return this.schema.equals(Config.dbSchema) && Arrays.asList(this.repeatFamilies).equals(repeatFamilies);
+	}
+
+	/**
+	 * @param chromosome name of the chromosome
+	 * @return true if counts for the chromosome are available
+	 */
+	public boolean contains(String chromosome) {
+		return this.chromosomes.containsKey(chromosome);
+	}
+
+	/**
+	 * @param chromosome name of the chromosome
+	 * @return the coverage per family, other repeats and non repetitive positions split by the number of families
+	 *         sharing the positions (see RepeatLabelTrack.getFamilyCoverages), must not be modified
+	 */
+	public long[][] getCoverages(String chromosome) {
+		return this.chromosomes.get(chromosome);
+	}
+
+	/**
+	 * writes the counts to a file
+	 * @param file the target file
+	 * @throws IOException if the file cannot be written
+	 */
+	public void write(File file) throws IOException {
+		file.getParentFile().mkdirs();
+		DataOutputStream dos = new DataOutputStream(
+				new BufferedOutputStream(new LZ4FrameOutputStream(new FileOutputStream(file))));
+
+		dos.writeInt(RepeatComposition.MAGIC);
+		dos.writeUTF(this.schema);
+		dos.writeInt(this.repeatFamilies.length);
+		for (String repeatFamily : this.repeatFamilies)
+			dos.writeUTF(repeatFamily);
+		dos.writeInt(this.chromosomes.size());
+		for (String chromosome : this.chromosomes.keySet()) {
+			long[][] coverages = this.chromosomes.get(chromosome);
+			dos.writeUTF(chromosome);
+			for (long[] familyCoverages : coverages)
+				for (long coverage : familyCoverages)
+					dos.writeLong(coverage);
+		}
+		dos.flush();
+		dos.close();
+	}
+
+	/**
+	 * @param file a file written by write(File)
+	 * @return the counts stored in the file
+	 * @throws IOException if the file cannot be read or does not contain repeat compositions
+	 */
+	public static RepeatComposition read(File file) throws IOException {
+		DataInputStream dis = new DataInputStream(
+				new LZ4FrameInputStream(new BufferedInputStream(new FileInputStream(file))));
+		try {
+			if (dis.readInt() != RepeatComposition.MAGIC)
+				throw new IOException(file + " does not contain repeat compositions");
+			String schema = dis.readUTF();
+			String[] repeatFamilies = new String[dis.readInt()];
+			for (int f = 0; f < repeatFamilies.length; f++)
+				repeatFamilies[f] = dis.readUTF();
+
+			RepeatComposition composition = new RepeatComposition(Arrays.asList(repeatFamilies));
+			composition.schema = schema;
+			int numberOfChromosomes = dis.readInt();
+			for (int c = 0; c < numberOfChromosomes; c++) {
+				String chromosome = dis.readUTF();
+				long[][] coverages = new long[repeatFamilies.length + 2][repeatFamilies.length + 1];
+				for (long[] familyCoverages : coverages)
+					for (int k = 0; k < familyCoverages.length; k++)
+						familyCoverages[k] = dis.readLong();
+				composition.chromosomes.put(chromosome, coverages);
+			}
+			return composition;
+		} finally {
+			dis.close();
+		}
+	}
+}
@@ -0,0 +1,128 @@
+package cna.data;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+
+/**
+ * Collects annotated repeats of one or more chromosomes and builds their interval indices. Family, class and name
+ * tables are shared by all chromosomes (ids in order of first occurrence).
+ * @author Stefan Grabuschnig
+ *
+ */
+public class RepeatIntervalBuilder {
+	private final StringTable families = new StringTable();
+	private final StringTable classes = new StringTable();
+	private final StringTable names = new StringTable();
+	private final LinkedHashMap<String, ChromosomeIntervals> chromosomes = new LinkedHashMap<String,
+			ChromosomeIntervals>();
+
+	// intervals of a chromosome in order of addition
+	private static class ChromosomeIntervals {
+		private int size = 0;
+		private int[] start = new int[1 << 12];
+		private int[] end = new int[start.length];
+		private int[] family = new int[start.length];
+		private int[] repeatClass = new int[start.length];
+		private int[] name = new int[start.length];
+
+		private void add(int start, int end, int family, int repeatClass, int name) {
+			if (this.size == this.start.length) {
+				this.start = Arrays.copyOf(this.start, 2 * this.size);
+				this.end = Arrays.copyOf(this.end, 2 * this.size);
+				this.family = Arrays.copyOf(this.family, 2 * this.size);
+				this.repeatClass = Arrays.copyOf(this.repeatClass, 2 * this.size);
+				this.name = Arrays.copyOf(this.name, 2 * this.size);
+			}
+			this.start[this.size] = start;
+			this.end[this.size] = end;
+			this.family[this.size] = family;
+			this.repeatClass[this.size] = repeatClass;
+			this.name[this.size] = name;
+			this.size++;
+		}
+	}
+
+	// ids of distinct strings in order of first occurrence
+	private static class StringTable {
+		private final ArrayList<String> entries = new ArrayList<String>();
+		private final HashMap<String, Integer> ids = new HashMap<String, Integer>();
+
+		private int getId(String entry) {
+			Integer id = this.ids.get(entry);
+			if (id == null) {
+				id = this.entries.size();
+				this.entries.add(entry);
+				this.ids.put(entry, id);
+			}
+			return id;
+		}
+
+		private String[] toArray() {
+			return this.entries.toArray(new String[this.entries.size()]);
+		}
+	}
+
+	/**
+	 * @param chromosome name of the chromosome (without chr prefix)
+	 * @param start start coordinate (inclusive)
+	 * @param end end coordinate (exclusive)
+	 * @param repFamily repeat family
+	 * @param repClass repeat class
+	 * @param repName repeat name
+	 */
+	public void add(String chromosome, int start, int end, String repFamily, String repClass, String repName) {
+		ChromosomeIntervals intervals = this.chromosomes.get(chromosome);
+		if (intervals == null) {
+			intervals = new ChromosomeIntervals();
+			this.chromosomes.put(chromosome, intervals);
+		}
+		intervals.add(start, end, this.families.getId(repFamily), this.classes.getId(repClass),
+				this.names.getId(repName));
+	}
+
+	/**
+	 * @param level level of the repeat hierarchy
+	 * @return names of all repeat classes, families or names in order of first occurrence
+	 */
+	public String[] getCategories(RepeatLevel level) {
+		switch (level) {
+		case CLASS:
+			return this.classes.toArray();
+		case NAME:
+			return this.names.toArray();
+		default:
+			return this.families.toArray();
+		}
+	}
+
+	/**
+	 * @param chromosome name of the chromosome
+	 * @return the interval index of the chromosome (empty if no repeat was added)
+	 */
+	public RepeatIntervalIndex build(String chromosome) {
+		ChromosomeIntervals intervals = this.chromosomes.get(chromosome);
+		if (intervals == null)
+			intervals = new ChromosomeIntervals();
+		return new RepeatIntervalIndex(this.families.toArray(), this.classes.toArray(), this.names.toArray(),
+				intervals.start, intervals.end, intervals.family, intervals.repeatClass, intervals.name,
+				intervals.size);
+	}
+
+	/**
+	 * @return the interval indices of all chromosomes in order of first occurrence
+	 */
+	public LinkedHashMap<String, RepeatIntervalIndex> build() {
+		String[] familyTable = this.families.toArray();
+		String[] classTable = this.classes.toArray();
+		String[] nameTable = this.names.toArray();
+		LinkedHashMap<String, RepeatIntervalIndex> indices = new LinkedHashMap<String, RepeatIntervalIndex>();
+		for (String chromosome : this.chromosomes.keySet()) {
+			ChromosomeIntervals intervals = this.chromosomes.get(chromosome);
+			indices.put(chromosome, new RepeatIntervalIndex(familyTable, classTable, nameTable, intervals.start,
+					intervals.end, intervals.family, intervals.repeatClass, intervals.name, intervals.size));
+		}
+		return indices;
+	}
+}
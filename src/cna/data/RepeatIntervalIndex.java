@@ -0,0 +1,369 @@
+package cna.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Represents the annotated repeats of a chromosome as intervals sorted by start (start, end, family, class and name
+ * id arrays with string tables of the families, classes and names).
+ * Overlap queries use binary search and a cumulative maximum of the interval ends (implicit interval tree), so that
+ * a query costs O(log n + k) and no per-base arrays are needed. Coordinates are zero based, start inclusive and end
+ * exclusive like in the rmsk table.
+ * @author Stefan Grabuschnig
+ *
+ */
+public class RepeatIntervalIndex {
+	private static final int MAGIC = 0x524d5349;
+	private static final int VERSION = 2;
+
+	private String[] families;
+	private String[] classes;
+	private String[] names;
+	private int size;
+	private int[] start;
+	private int[] end;
+	private int[] family;
+	private int[] repeatClass;
+	private int[] name;
+	private int[] maxEnd; // maximum end of all intervals up to index i
+
+	/**
+	 * @param families names of the repeat families (indexed by family id)
+	 * @param classes names of the repeat classes (indexed by class id)
+	 * @param names names of the repeats (indexed by name id)
+	 * @param start start coordinates (inclusive)
+	 * @param end end coordinates (exclusive)
+	 * @param family family ids
+	 * @param repeatClass class ids
+	 * @param name name ids
+	 * @param size number of intervals
+	 */
+	public RepeatIntervalIndex(String[] families, String[] classes, String[] names, int[] start, int[] end,
+			int[] family, int[] repeatClass, int[] name, int size) {
+		this.families = families;
+		this.classes = classes;
+		this.names = names;
+		this.size = size;
+
+		// sort by start, the index in the lower bits keeps ties stable
+		long[] keys = new long[size];
+		for (int i = 0; i < size; i++)
+			keys[i] = ((long) start[i] << 32) | i;
+		Arrays.sort(keys);
+
+		this.start = new int[size];
+		this.end = new int[size];
+		this.family = new int[size];
+		this.repeatClass = new int[size];
+		this.name = new int[size];
+		for (int i = 0; i < size; i++) {
+			int index = (int) keys[i];
+			this.start[i] = start[index];
+			this.end[i] = end[index];
+			this.family[i] = family[index];
+			this.repeatClass[i] = repeatClass[index];
+			this.name[i] = name[index];
+		}
+		this.initMaxEnd();
+	}
+
+	private RepeatIntervalIndex() {
+	}
+
+	private void initMaxEnd() {
+		this.maxEnd = new int[this.size];
+		for (int i = 0; i < this.size; i++)
+			this.maxEnd[i] = i == 0 ? this.end[i] : Math.max(this.maxEnd[i - 1], this.end[i]);
+	}
+
+	/**
+	 * @param file persisted index
+	 * @return the index
+	 * @throws IOException if the file cannot be read or is not a repeat interval index
+	 */
+	public static RepeatIntervalIndex load(File file) throws IOException {
+		RepeatIntervalIndex index = new RepeatIntervalIndex();
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		try {
+			if (in.readInt() != RepeatIntervalIndex.MAGIC)
+				throw new IOException(file + " is not a repeat interval index");
+			if (in.readInt() != RepeatIntervalIndex.VERSION)
+				throw new IOException(file + " has an unsupported version");
+			index.families = RepeatIntervalIndex.readTable(in);
+			index.classes = RepeatIntervalIndex.readTable(in);
+			index.names = RepeatIntervalIndex.readTable(in);
+			index.size = in.readInt();
+			index.start = new int[index.size];
+			index.end = new int[index.size];
+			index.family = new int[index.size];
+			index.repeatClass = new int[index.size];
+			index.name = new int[index.size];
+			for (int i = 0; i < index.size; i++) {
+				index.start[i] = in.readInt();
+				index.end[i] = in.readInt();
+				index.family[i] = in.readInt();
+				index.repeatClass[i] = in.readInt();
+				index.name[i] = in.readInt();
+			}
+		} finally {
+			in.close();
+		}
+		index.initMaxEnd();
+		return index;
+	}
+
+	/**
+	 * @param file target file (parent directories are created)
+	 * @throws IOException if the file cannot be written
+	 */
+	public void save(File file) throws IOException {
+		file.getParentFile().mkdirs();
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		try {
+			out.writeInt(RepeatIntervalIndex.MAGIC);
+			out.writeInt(RepeatIntervalIndex.VERSION);
+			RepeatIntervalIndex.writeTable(out, this.families);
+			RepeatIntervalIndex.writeTable(out, this.classes);
+			RepeatIntervalIndex.writeTable(out, this.names);
+			out.writeInt(this.size);
+			for (int i = 0; i < this.size; i++) {
+				out.writeInt(this.start[i]);
+				out.writeInt(this.end[i]);
+				out.writeInt(this.family[i]);
+				out.writeInt(this.repeatClass[i]);
+				out.writeInt(this.name[i]);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	private static String[] readTable(DataInputStream in) throws IOException {
+		String[] table = new String[in.readInt()];
+		for (int i = 0; i < table.length; i++)
+			table[i] = in.readUTF();
+		return table;
+	}
+
+	private static void writeTable(DataOutputStream out, String[] table) throws IOException {
+		out.writeInt(table.length);
+		for (String entry : table)
+			out.writeUTF(entry);
+	}
+
+	/**
+	 * @return the number of intervals
+	 */
+	public int size() {
+		return this.size;
+	}
+
+	/**
+	 * @return names of the repeat families (indexed by family id)
+	 */
+	public String[] getFamilies() {
+		return this.families;
+	}
+
+	/**
+	 * @return names of the repeat classes (indexed by class id)
+	 */
+	public String[] getClasses() {
+		return this.classes;
+	}
+
+	/**
+	 * @return names of the repeats (indexed by name id)
+	 */
+	public String[] getNames() {
+		return this.names;
+	}
+
+	/**
+	 * @param index index of the interval (in order of start)
+	 * @return the start coordinate (inclusive)
+	 */
+	public int getStart(int index) {
+		return this.start[index];
+	}
+
+	/**
+	 * @param index index of the interval (in order of start)
+	 * @return the end coordinate (exclusive)
+	 */
+	public int getEnd(int index) {
+		return this.end[index];
+	}
+
+	/**
+	 * @param index index of the interval (in order of start)
+	 * @return the family id of the interval
+	 */
+	public int getFamily(int index) {
+		return this.family[index];
+	}
+
+	/**
+	 * @param index index of the interval (in order of start)
+	 * @return the class id of the interval
+	 */
+	public int getRepeatClass(int index) {
+		return this.repeatClass[index];
+	}
+
+	/**
+	 * @param index index of the interval (in order of start)
+	 * @return the name id of the interval
+	 */
+	public int getName(int index) {
+		return this.name[index];
+	}
+
+	/**
+	 * @param index index of the interval (in order of start)
+	 * @return the annotated repeat of the interval
+	 */
+	public Repeat getRepeat(int index) {
+		return new Repeat(this.names[this.name[index]], this.classes[this.repeatClass[index]],
+				this.families[this.family[index]], this.start[index], this.end[index]);
+	}
+
+	/**
+	 * @param level level of the repeat hierarchy
+	 * @return names of the repeat classes, families or names (indexed by id of the level)
+	 */
+	public String[] getCategories(RepeatLevel level) {
+		switch (level) {
+		case CLASS:
+			return this.classes;
+		case NAME:
+			return this.names;
+		default:
+			return this.families;
+		}
+	}
+
+	/**
+	 * @param level level of the repeat hierarchy
+	 * @param index index of the interval (in order of start)
+	 * @return the class, family or name id of the interval
+	 */
+	public int getCategory(RepeatLevel level, int index) {
+		switch (level) {
+		case CLASS:
+			return this.repeatClass[index];
+		case NAME:
+			return this.name[index];
+		default:
+			return this.family[index];
+		}
+	}
+
+	/**
+	 * @param repeatFamilies names of the considered repeat families
+	 * @return for each family id the index of the family in repeatFamilies, repeatFamilies.size() (other repeats)
+	 *         if the family is not considered
+	 */
+	public int[] getFamilyMapping(List<String> repeatFamilies) {
+		return this.getMapping(RepeatLevel.FAMILY, repeatFamilies);
+	}
+
+	/**
+	 * @param level level of the repeat hierarchy
+	 * @param categories names of the considered repeat classes, families or names
+	 * @return for each id of the level the index of the category in categories, categories.size() (other repeats)
+	 *         if the category is not considered
+	 */
+	public int[] getMapping(RepeatLevel level, List<String> categories) {
+		HashMap<String, Integer> indices = new HashMap<String, Integer>(2 * categories.size());
+		for (int i = 0; i < categories.size(); i++)
+			indices.put(categories.get(i), i);
+
+		String[] table = this.getCategories(level);
+		int[] mapping = new int[table.length];
+		for (int c = 0; c < table.length; c++) {
+			Integer index = indices.get(table[c]);
+			mapping[c] = index == null ? categories.size() : index;
+		}
+		return mapping;
+	}
+
+	/**
+	 * @param from first position (inclusive)
+	 * @param to last position (exclusive)
+	 * @return indices of all intervals overlapping the range (in order of start)
+	 */
+	public int[] getOverlaps(int from, int to) {
+		// last interval starting before the end of the range
+		int low = 0;
+		int high = this.size;
+		while (low < high) {
+			int middle = (low + high) >>> 1;
+			if (this.start[middle] < to)
+				low = middle + 1;
+			else
+				high = middle;
+		}
+
+		// walk back while earlier intervals may still reach into the range
+		int[] overlaps = new int[4];
+		int numberOfOverlaps = 0;
+		for (int i = low - 1; i >= 0 && this.maxEnd[i] > from; i--)
+			if (this.end[i] > from) {
+				if (numberOfOverlaps == overlaps.length)
+					overlaps = Arrays.copyOf(overlaps, 2 * overlaps.length);
+				overlaps[numberOfOverlaps++] = i;
+			}
+
+		int[] result = new int[numberOfOverlaps];
+		for (int i = 0; i < numberOfOverlaps; i++)
+			result[i] = overlaps[numberOfOverlaps - 1 - i];
+		return result;
+	}
+
+	/**
+	 * Classifies a range by the positions covered by the considered families and other repeats (annotated
+	 * positions not belonging to any considered family)
+	 * @param from first position (inclusive)
+	 * @param to last position (exclusive)
+	 * @param familyMapping mapping of family ids to considered families (see getFamilyMapping)
+	 * @param numberOfFamilies number of considered repeat families
+	 * @return flags for each considered family followed by other repeats, true if the range contains a position of
+	 *         the family
+	 */
+	public boolean[] classify(int from, int to, int[] familyMapping, int numberOfFamilies) {
+		boolean[] overlapping = new boolean[numberOfFamilies + 1];
+		int[] overlaps = this.getOverlaps(from, to);
+
+		// ranges of considered families within the range (sorted by start)
+		ArrayList<int[]> considered = new ArrayList<int[]>(overlaps.length);
+		for (int i : overlaps)
+			if (familyMapping[this.family[i]] < numberOfFamilies) {
+				overlapping[familyMapping[this.family[i]]] = true;
+				considered.add(new int[] { Math.max(from, this.start[i]), Math.min(to, this.end[i]) });
+			}
+
+		// other repeats count only where no considered family is annotated
+		for (int i : overlaps) {
+			if (overlapping[numberOfFamilies] || familyMapping[this.family[i]] < numberOfFamilies)
+				continue;
+			int position = Math.max(from, this.start[i]);
+			int end = Math.min(to, this.end[i]);
+			for (int[] range : considered)
+				if (range[0] <= position && range[1] > position)
+					position = range[1];
+			overlapping[numberOfFamilies] = position < end;
+		}
+		return overlapping;
+	}
+}
@@ -0,0 +1,316 @@
+package cna.data;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+
+/**
+ * Represents the repeat family label of every position of a chromosome for a set of considered repeat families. Each
+ * position carries the id of a family combination: the considered families annotated at the position, other repeats
+ * (annotated, but no considered family) or none (combination 0, non repetitive). The track is stored run-length
+ * encoded as segments of equal label, a small table maps combination ids to families and weights (1 / number of
+ * families). Tracks for other levels of the repeat hierarchy are built the same way, with the considered classes or
+ * names in place of the families.
+ * @author Stefan Grabuschnig
+ *
+ */
+public class RepeatLabelTrack {
+	private static final int MAGIC = 0x524d534c;
+
+	private String[] repeatFamilies;
+	private int chromosomeSize;
+	private int[][] combinations; // family indices per combination id, index repeatFamilies.size() are other repeats
+	private int numberOfSegments;
+	private int[] segmentStarts;
+	private int[] segmentCombinations;
+
+	private RepeatLabelTrack() {
+	}
+
+	/**
+	 * @param intervals interval index of all repeats of the chromosome
+	 * @param repeatFamilies names of the considered repeat families
+	 * @param chromosomeSize size of the chromosome
+	 * @return the label track
+	 */
+	public static RepeatLabelTrack build(RepeatIntervalIndex intervals, List<String> repeatFamilies,
+			int chromosomeSize) {
+		return RepeatLabelTrack.build(intervals, RepeatLevel.FAMILY, repeatFamilies, chromosomeSize);
+	}
+
+	/**
+	 * @param intervals interval index of all repeats of the chromosome
+	 * @param level level of the repeat hierarchy the track labels
+	 * @param repeatFamilies names of the considered repeat classes, families or names (depending on level)
+	 * @param chromosomeSize size of the chromosome
+	 * @return the label track
+	 */
+	public static RepeatLabelTrack build(RepeatIntervalIndex intervals, RepeatLevel level,
+			List<String> repeatFamilies, int chromosomeSize) {
+		int numberOfFamilies = repeatFamilies.size();
+		int[] familyMapping = intervals.getMapping(level, repeatFamilies);
+
+		// boundaries: position, type (end before start) and family index
+		long[] boundaries = new long[2 * intervals.size()];
+		int numberOfBoundaries = 0;
+		for (int i = 0; i < intervals.size(); i++) {
+			int start = intervals.getStart(i);
+			int end = Math.min(intervals.getEnd(i), chromosomeSize);
+			if (start >= end)
+				continue;
+			int family = familyMapping[intervals.getCategory(level, i)];
+			boundaries[numberOfBoundaries++] = ((long) start << 33) | (1L << 32) | family;
+			boundaries[numberOfBoundaries++] = ((long) end << 33) | family;
+		}
+		Arrays.sort(boundaries, 0, numberOfBoundaries);
+
+		RepeatLabelTrack track = new RepeatLabelTrack();
+		track.repeatFamilies = repeatFamilies.toArray(new String[numberOfFamilies]);
+		track.chromosomeSize = chromosomeSize;
+		ArrayList<int[]> combinations = new ArrayList<int[]>();
+		HashMap<String, Integer> combinationIds = new HashMap<String, Integer>();
+		combinations.add(new int[0]);
+		combinationIds.put(Arrays.toString(new int[0]), 0);
+
+		track.segmentStarts = new int[16];
+		track.segmentCombinations = new int[16];
+		track.numberOfSegments = 1; // non repetitive from position 0
+
+		int[] counts = new int[numberOfFamilies + 1];
+		int[] families = new int[numberOfFamilies + 1];
+		for (int b = 0; b < numberOfBoundaries;) {
+			int position = (int) (boundaries[b] >>> 33);
+			for (; b < numberOfBoundaries && (int) (boundaries[b] >>> 33) == position; b++)
+				counts[(int) boundaries[b]] += ((boundaries[b] >>> 32) & 1) == 1 ? 1 : -1;
+			if (position >= chromosomeSize)
+				break;
+
+			// considered families at the position, other repeats only if none of them is annotated
+			int numberOfLabels = 0;
+			for (int f = 0; f < numberOfFamilies; f++)
+				if (counts[f] > 0)
+					families[numberOfLabels++] = f;
+			if (numberOfLabels == 0 && counts[numberOfFamilies] > 0)
+				families[numberOfLabels++] = numberOfFamilies;
+
+			int[] combination = Arrays.copyOf(families, numberOfLabels);
+			String key = Arrays.toString(combination);
+			Integer combinationId = combinationIds.get(key);
+			if (combinationId == null) {
+				combinationId = combinations.size();
+				combinations.add(combination);
+				combinationIds.put(key, combinationId);
+			}
+			track.addSegment(position, combinationId);
+		}
+		track.combinations = combinations.toArray(new int[combinations.size()][]);
+		return track;
+	}
+
+	private void addSegment(int position, int combination) {
+		int last = this.numberOfSegments - 1;
+		if (this.segmentCombinations[last] == combination)
+			return;
+		if (this.segmentStarts[last] == position) {
+			this.segmentCombinations[last] = combination;
+			// merge with the previous segment if the label did not change
+			if (last > 0 && this.segmentCombinations[last - 1] == combination)
+				this.numberOfSegments--;
+			return;
+		}
+		if (this.numberOfSegments == this.segmentStarts.length) {
+			this.segmentStarts = Arrays.copyOf(this.segmentStarts, 2 * this.numberOfSegments);
+			this.segmentCombinations = Arrays.copyOf(this.segmentCombinations, 2 * this.numberOfSegments);
+		}
+		this.segmentStarts[this.numberOfSegments] = position;
+		this.segmentCombinations[this.numberOfSegments] = combination;
+		this.numberOfSegments++;
+	}
+
+	/**
+	 * @param file persisted track
+	 * @return the label track
+	 * @throws IOException if the file cannot be read or is not a repeat label track
+	 */
+	public static RepeatLabelTrack load(File file) throws IOException {
+		RepeatLabelTrack track = new RepeatLabelTrack();
+		DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(file), 1 << 16));
+		try {
+			if (in.readInt() != RepeatLabelTrack.MAGIC)
+				throw new IOException(file + " is not a repeat label track");
+			track.repeatFamilies = new String[in.readInt()];
+			for (int f = 0; f < track.repeatFamilies.length; f++)
+				track.repeatFamilies[f] = in.readUTF();
+			track.chromosomeSize = in.readInt();
+			track.combinations = new int[in.readInt()][];
+			for (int c = 0; c < track.combinations.length; c++) {
+				track.combinations[c] = new int[in.readInt()];
+				for (int f = 0; f < track.combinations[c].length; f++)
+					track.combinations[c][f] = in.readInt();
+			}
+			track.numberOfSegments = in.readInt();
+			track.segmentStarts = new int[track.numberOfSegments];
+			track.segmentCombinations = new int[track.numberOfSegments];
+			for (int i = 0; i < track.numberOfSegments; i++) {
+				track.segmentStarts[i] = in.readInt();
+				track.segmentCombinations[i] = in.readInt();
+			}
+		} finally {
+			in.close();
+		}
+		return track;
+	}
+
+	/**
+	 * @param file target file (parent directories are created)
+	 * @throws IOException if the file cannot be written
+	 */
+	public void save(File file) throws IOException {
+		file.getParentFile().mkdirs();
+		DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 1 << 16));
+		try {
+			out.writeInt(RepeatLabelTrack.MAGIC);
+			out.writeInt(this.repeatFamilies.length);
+			for (String repeatFamily : this.repeatFamilies)
+				out.writeUTF(repeatFamily);
+			out.writeInt(this.chromosomeSize);
+			out.writeInt(this.combinations.length);
+			for (int[] combination : this.combinations) {
+				out.writeInt(combination.length);
+				for (int family : combination)
+					out.writeInt(family);
+			}
+			out.writeInt(this.numberOfSegments);
+			for (int i = 0; i < this.numberOfSegments; i++) {
+				out.writeInt(this.segmentStarts[i]);
+				out.writeInt(this.segmentCombinations[i]);
+			}
+		} finally {
+			out.close();
+		}
+	}
+
+	/**
+	 * @param repeatFamilies names of the considered repeat families
+	 * @return true if the track was built for the repeat families (in this order)
+	 */
+	public boolean isBuiltFor(List<String> repeatFamilies) {
+		return Arrays.asList(this.repeatFamilies).equals(repeatFamilies);
+	}
+
+	/**
+	 * @return the size of the chromosome
+	 */
+	public int getChromosomeSize() {
+		return this.chromosomeSize;
+	}
+
+	/**
+	 * @return the number of family combinations (including non repetitive)
+	 */
+	public int getNumberOfCombinations() {
+		return this.combinations.length;
+	}
+
+	/**
+	 * @param combination combination id
+	 * @return indices of the considered families of the combination (repeatFamilies.size() for other repeats), empty
+	 *         for non repetitive positions
+	 */
+	public int[] getFamilies(int combination) {
+		return this.combinations[combination];
+	}
+
+	/**
+	 * @param combination combination id
+	 * @return the share of each family of the combination (0 for non repetitive positions)
+	 */
+	public double getWeight(int combination) {
+		return this.combinations[combination].length == 0 ? 0 : 1.0d / this.combinations[combination].length;
+	}
+
+	/**
+	 * @param combinationCoverages coverage summed per combination id
+	 * @return the coverage per considered family, other repeats (index repeatFamilies.size()) and non repetitive
+	 *         positions (index repeatFamilies.size() + 1, k = 1), split by the number of families k sharing the
+	 *         positions (second index)
+	 */
+	public long[][] getFamilyCoverages(long[] combinationCoverages) {
+		int numberOfFamilies = this.repeatFamilies.length;
+		long[][] coverages = new long[numberOfFamilies + 2][numberOfFamilies + 1];
+		for (int combination = 0; combination < this.combinations.length; combination++) {
+			int[] families = this.combinations[combination];
+			if (families.length == 0)
+				coverages[numberOfFamilies + 1][1] += combinationCoverages[combination];
+			else
+				for (int family : families)
+					coverages[family][families.length] += combinationCoverages[combination];
+		}
+		return coverages;
+	}
+
+	/**
+	 * @return the number of segments of equal label
+	 */
+	public int getNumberOfSegments() {
+		return this.numberOfSegments;
+	}
+
+	/**
+	 * @param segment index of the segment
+	 * @return the first position of the segment (inclusive)
+	 */
+	public int getSegmentStart(int segment) {
+		return this.segmentStarts[segment];
+	}
+
+	/**
+	 * @param segment index of the segment
+	 * @return the last position of the segment (exclusive)
+	 */
+	public int getSegmentEnd(int segment) {
+		return segment + 1 < this.numberOfSegments ? this.segmentStarts[segment + 1] : this.chromosomeSize;
+	}
+
+	/**
+	 * @param segment index of the segment
+	 * @return the combination id of all positions of the segment
+	 */
+	public int getSegmentCombination(int segment) {
+		return this.segmentCombinations[segment];
+	}
+
+	/**
+	 * @param position position on the chromosome
+	 * @return index of the segment containing the position
+	 */
+	public int findSegment(int position) {
+		int low = 0;
+		int high = this.numberOfSegments - 1;
+		while (low < high) {
+			int middle = (low + high + 1) >>> 1;
+			if (this.segmentStarts[middle] <= position)
+				low = middle;
+			else
+				high = middle - 1;
+		}
+		return low;
+	}
+
+	/**
+	 * @param position position on the chromosome
+	 * @return the combination id of the position
+	 */
+	public int getLabel(int position) {
+		return this.segmentCombinations[this.findSegment(position)];
+	}
+}
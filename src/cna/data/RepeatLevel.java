@@ -0,0 +1,23 @@
+package cna.data;
+
+/**
+ * Levels of the RepeatMasker hierarchy (columns of the rmsk table) at which repeats can be considered
+ * @author Stefan Grabuschnig
+ *
+ */
+public enum RepeatLevel {
+	CLASS("repClass"), FAMILY("repFamily"), NAME("repName");
+
+	private final String column;
+
+	private RepeatLevel(String column) {
+		this.column = column;
+	}
+
+	/**
+	 * @return name of the respective column of the rmsk table
+	 */
+	public String getColumn() {
+		return this.column;
+	}
+}
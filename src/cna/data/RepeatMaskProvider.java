@@ -0,0 +1,146 @@
+package cna.data;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+
+import cna.config.Config;
+
+/**
+ * Provides repeat interval indices and label tracks from a shared in-memory cache backed by the persisted files
+ * and the annotation database (see RepeatMasker). Entries are keyed by database schema, chromosome and repeat
+ * families, loaded once if requested concurrently and evicted in least recently used order when the size of the
+ * cache exceeds the configured limit. Cached objects are shared and must not be modified.
+ * @author Stefan Grabuschnig
+ *
+ */
+public class RepeatMaskProvider {
+	private static final LinkedHashMap<String, Entry> cache = new LinkedHashMap<String, Entry>(64, 0.75f, true);
+	private static long cacheSize = 0; // bytes of all loaded entries
+
+	private static class Entry {
+		private final CompletableFuture<Object> value = new CompletableFuture<Object>();
+		private long size = -1; // -1 while loading
+	}
+
+	/**
+	 * @param chromosome name of the chromosome
+	 * @return the interval index of all annotated repeats on chromosome
+	 */
+	public static RepeatIntervalIndex getRepeatIntervals(final String chromosome) {
+		return RepeatMaskProvider.get(RepeatMaskProvider.getKey(chromosome, "intervals", ""),
+				new Callable<RepeatIntervalIndex>() {
+					@Override
+					public RepeatIntervalIndex call() {
+						return RepeatMasker.getRepeatIntervals(chromosome);
+					}
+				});
+	}
+
+	/**
+	 * @param genome the considered genome
+	 * @param chromosome name of the chromosome
+	 * @param repeatFamilies names of the considered repeat families
+	 * @return the family label track of the chromosome for the considered families
+	 */
+	public static RepeatLabelTrack getRepeatLabels(Genome genome, String chromosome, List<String> repeatFamilies) {
+		return RepeatMaskProvider.getRepeatLabels(genome, chromosome, RepeatLevel.FAMILY, repeatFamilies);
+	}
+
+	/**
+	 * @param genome the considered genome
+	 * @param chromosome name of the chromosome
+	 * @param level level of the repeat hierarchy
+	 * @param repeatFamilies names of the considered repeat classes, families or names (depending on level)
+	 * @return the label track of the chromosome for the considered classes, families or names
+	 */
+	public static RepeatLabelTrack getRepeatLabels(final Genome genome, final String chromosome,
+			final RepeatLevel level, final List<String> repeatFamilies) {
+		return RepeatMaskProvider.get(RepeatMaskProvider.getKey(chromosome, "labels-" + level.name().toLowerCase(),
+				repeatFamilies.toString()), new Callable<RepeatLabelTrack>() {
+					@Override
+					public RepeatLabelTrack call() {
+						return RepeatMasker.getRepeatLabels(genome, chromosome, level, repeatFamilies);
+					}
+				});
+	}
+
+	/**
+	 * removes all entries from the in-memory cache (persisted files are kept)
+	 */
+	public static void clear() {
+		synchronized (RepeatMaskProvider.cache) {
+			Iterator<Entry> entries = RepeatMaskProvider.cache.values().iterator();
+			while (entries.hasNext()) {
+				Entry entry = entries.next();
+				if (entry.size >= 0) {
+					RepeatMaskProvider.cacheSize -= entry.size;
+					entries.remove();
+				}
+			}
+		}
+	}
+
+	// the schema is part of every key, genomes of different schemas share chromosome names
+	private static String getKey(String chromosome, String type, String name) {
+		return Config.dbSchema + "/" + chromosome + "/" + type + "/" + name;
+	}
+
+	@SuppressWarnings("unchecked")
+	private static <T> T get(String key, Callable<T> loader) {
+		Entry entry;
+		boolean load = false;
+		synchronized (RepeatMaskProvider.cache) {
+			entry = RepeatMaskProvider.cache.get(key);
+			if (entry == null) {
+				entry = new Entry();
+				RepeatMaskProvider.cache.put(key, entry);
+				load = true;
+			}
+		}
+
+		// load outside of the lock, concurrent requests for the same key wait for the result
+		if (load) {
+			T value = null;
+			try {
+				value = loader.call();
+			} catch (Exception e) {
+				System.out.println("ERROR loading repeat annotation " + key);
+				e.printStackTrace();
+				System.exit(0);
+			}
+			entry.value.complete(value);
+
+			synchronized (RepeatMaskProvider.cache) {
+				entry.size = RepeatMaskProvider.getSize(value);
+				RepeatMaskProvider.cacheSize += entry.size;
+				RepeatMaskProvider.evict();
+			}
+		}
+		return (T) entry.value.join();
+	}
+
+	// evicts least recently used entries until the cache fits the configured size (entries still loading are kept)
+	private static void evict() {
+		long maximumSize = (long) Config.repeatCacheSize << 20;
+		Iterator<Entry> entries = RepeatMaskProvider.cache.values().iterator();
+		while (RepeatMaskProvider.cacheSize > maximumSize && entries.hasNext()) {
+			Entry entry = entries.next();
+			if (entry.size >= 0) {
+				RepeatMaskProvider.cacheSize -= entry.size;
+				entries.remove();
+			}
+		}
+	}
+
+	// approximate heap size of a cached object in bytes
+	private static long getSize(Object value) {
+		if (value instanceof RepeatIntervalIndex)
+			return 16L * ((RepeatIntervalIndex) value).size();
+		if (value instanceof RepeatLabelTrack)
+			return 8L * ((RepeatLabelTrack) value).getNumberOfSegments();
+		return 0;
+	}
+}
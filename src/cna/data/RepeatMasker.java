@@ -1,120 +1,286 @@
 package cna.data;
 
-import java.io.BufferedInputStream;
-import java.io.BufferedOutputStream;
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.ObjectInputStream;
-import java.io.ObjectOutputStream;
+import java.io.PrintWriter;
+import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
-import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
+import java.util.List;
+import java.util.concurrent.Semaphore;
 
 import cna.config.Config;
-import net.jpountz.lz4.LZ4FrameInputStream;
-import net.jpountz.lz4.LZ4FrameOutputStream;
+import cna.parallel.ExecutionRuntime;
+import cna.util.RepeatMaskerImporter;
 
 /**
- * Provides functionality to obtain repeat masks from an annotation database
+ * Provides functionality to obtain repeat annotation from an annotation database or from an imported UCSC rmsk dump
+ * (see Config.rmskFile, no database connection is needed then). Label tracks are derived from the interval index of a
+ * chromosome (one streamed query or the import). Interval indices and label tracks are persisted per schema
+ * (rmsk/&lt;schema&gt;/) after the first query, see RepeatMaskProvider for the shared in-memory cache.
  * @author Stefan Grabuschnig
  *
  */
 public class RepeatMasker {
 	private static final DataBase db = new DataBase(Config.dbDriver, Config.dbURL, Config.dbUser, Config.dbPassword);
+	private static String importedSource = null; // marker and source of the import verified last (see importRepeats)
 
 	/**
-	 * @param genome the considered genome
 	 * @param chromosome name of the chromosome
-	 * @return the repeat mask for all annotated repeats on chromosome
+	 * @return the interval index of all annotated repeats on chromosome (persisted after the first query or import)
 	 */
-	public static int[] getRepeatMask(Genome genome, String chromosome) {
-		int[] mask = null;
-		File file = new File("rmsk" + File.separator + chromosome + ".rmsk");
+	public static RepeatIntervalIndex getRepeatIntervals(String chromosome) {
+		File file = RepeatMasker.getIntervalFile(chromosome);
+		String query = "SELECT genoStart, genoEnd, repName, repClass, repFamily FROM " + Config.dbSchema + ".rmsk"
+				+ " WHERE genoName = 'chr" + chromosome + "';";
 
 		try {
-			if (file.exists()) {
-				mask = RepeatMasker.uncompressIntArray(Files.readAllBytes(Paths.get(file.getAbsolutePath())));
-			} else {
-				System.out.print("Generating repeat mask...");
-				mask = new int[genome.getChromosomeSize(chromosome)];
+			if (RepeatMasker.isImported()) {
+				RepeatMasker.importRepeats();
+				// chromosomes without annotated repeats are not part of the dump
+				return file.exists() ? RepeatIntervalIndex.load(file) : new RepeatIntervalBuilder().build(chromosome);
+			}
+			if (file.exists())
+				return RepeatIntervalIndex.load(file);
 
+			RepeatIntervalBuilder repeats = new RepeatIntervalBuilder();
+			DataBase db = new DataBase(Config.dbDriver, Config.dbURL, Config.dbUser, Config.dbPassword);
+			Semaphore databasePermits = ExecutionRuntime.getDatabasePermits();
+			databasePermits.acquireUninterruptibly();
+			try {
 				db.connect();
+				ResultSet rs = db.performStreamingQuery(query, Integer.MIN_VALUE);
 
-				String query = "SELECT genoStart, genoEnd FROM " + Config.dbSchema + ".rmsk" + " WHERE genoName = 'chr"
-						+ chromosome + "';";
-
-				ResultSet rs = db.performQuery(query);
-
-				while (rs.next()) {
-					for (int i = rs.getInt("genoStart"); i < rs.getInt("genoEnd"); i++)
-						mask[i] = 1;
-				}
+				while (rs.next())
+					repeats.add(chromosome, rs.getInt("genoStart"), rs.getInt("genoEnd"), rs.getString("repFamily"),
+							rs.getString("repClass"), rs.getString("repName"));
 				rs.close();
 				db.disconnect();
-
-				file.getParentFile().mkdirs();
-				Files.write(Paths.get(file.getAbsolutePath()), RepeatMasker.compress(mask));
-				System.out.println("finished.");
+			} finally {
+				databasePermits.release();
 			}
-		} catch (FileNotFoundException e) {
-			e.printStackTrace();
-			System.exit(0);
+
+			RepeatIntervalIndex index = repeats.build(chromosome);
+			RepeatMasker.saveIntervals(index, file);
+			return index;
 		} catch (IOException e) {
+			System.out.println("ERROR reading repeat intervals " + file);
 			e.printStackTrace();
 			System.exit(0);
 		} catch (SQLException e) {
 			e.printStackTrace();
 			System.exit(0);
 		}
+		return null;
+	}
 
-		return mask;
+	/**
+	 * @param genome the considered genome
+	 * @param chromosome name of the chromosome
+	 * @param repeatFamilies names of the considered repeat families
+	 * @return the family label track of the chromosome for the considered families (persisted per family set)
+	 */
+	public static RepeatLabelTrack getRepeatLabels(Genome genome, String chromosome, List<String> repeatFamilies) {
+		return RepeatMasker.getRepeatLabels(genome, chromosome, RepeatLevel.FAMILY, repeatFamilies);
 	}
 
 	/**
 	 * @param genome the considered genome
 	 * @param chromosome name of the chromosome
-	 * @param repeatFamily name of the repeat family
-	 * @return the repeat mask for the specified repeat family
+	 * @param level level of the repeat hierarchy
+	 * @param repeatFamilies names of the considered repeat classes, families or names (depending on level)
+	 * @return the label track of the chromosome for the considered classes, families or names (persisted per level
+	 *         and set)
 	 */
-	public static int[] getRepeatFamilyMask(Genome genome, String chromosome, String repeatFamily) {
-		int[] mask = new int[genome.getChromosomeSize(chromosome)];
-		String query2 = "SELECT genoStart, genoEnd FROM " + Config.dbSchema + ".rmsk" + " WHERE genoName = 'chr"
-				+ chromosome + "' AND rmsk.repFamily = '" + repeatFamily + "';";
-		db.connect();
-		ResultSet rs = db.performQuery(query2);
+	public static RepeatLabelTrack getRepeatLabels(Genome genome, String chromosome, RepeatLevel level,
+			List<String> repeatFamilies) {
+		StringBuilder familySet = new StringBuilder();
+		for (String repeatFamily : repeatFamilies)
+			familySet.append(repeatFamily).append('\n');
+		String prefix = level == RepeatLevel.FAMILY ? "labels-" : "labels-" + level.name().toLowerCase() + "-";
+		File file = new File(RepeatMasker.getDirectory(), chromosome + File.separator + prefix
+				+ Integer.toHexString(familySet.toString().hashCode()) + "-" + repeatFamilies.size() + ".labels");
 
 		try {
-			while (rs.next()) {
-				for (int i = rs.getInt("genoStart"); i < rs.getInt("genoEnd"); i++)
-					mask[i] = 1;
+			if (RepeatMasker.isImported())
+				RepeatMasker.importRepeats(); // removes label tracks of a previous import
+			if (file.exists()) {
+				RepeatLabelTrack track = RepeatLabelTrack.load(file);
+				if (track.isBuiltFor(repeatFamilies))
+					return track;
 			}
-			rs.close();
-			db.disconnect();
-		} catch (SQLException e) {
+
+			RepeatLabelTrack track = RepeatLabelTrack.build(RepeatMasker.getRepeatIntervals(chromosome), level,
+					repeatFamilies, genome.getChromosomeSize(chromosome));
+			File temporary = new File(file.getPath() + "." + Thread.currentThread().getId() + ".tmp");
+			track.save(temporary);
+			Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+					StandardCopyOption.ATOMIC_MOVE);
+			return track;
+		} catch (IOException e) {
+			System.out.println("ERROR reading repeat labels " + file);
 			e.printStackTrace();
+			System.exit(0);
 		}
+		return null;
+	}
 
-		return mask;
+	/**
+	 * @param chromosome name of the chromosome
+	 * @param start genomic start coordinate of the region
+	 * @param stop genomic stop coordinate of the region
+	 * @return all repeats overlapping the region (including repeats ending at start or starting at stop) from the
+	 *         imported rmsk dump
+	 */
+	public static ArrayList<Repeat> getRepeats(String chromosome, int start, int stop) {
+		RepeatIntervalIndex intervals = RepeatMaskProvider.getRepeatIntervals(chromosome);
+		int[] overlaps = intervals.getOverlaps(start - 1, stop + 1);
+		ArrayList<Repeat> repeats = new ArrayList<Repeat>(overlaps.length);
+		for (int i : overlaps)
+			repeats.add(intervals.getRepeat(i));
+		return repeats;
 	}
 
 	/**
-	 * @return complete list of all annotated repeat families in the database
+	 * @return true if the repeat annotation is imported from an rmsk dump instead of queried from the database
+	 */
+	public static boolean isImported() {
+		return Config.rmskFile != null;
+	}
+
+	// imports the rmsk dump once per schema and dump, the source marker (path, size and modification time of the dump) is
+	// written last and marks a complete import. Label tracks and intervals derived from a previous annotation of the
+	// schema are removed first, also if the marker was written for a different dump.
+	private static synchronized void importRepeats() throws IOException {
+		File marker = RepeatMasker.getSourceFile();
+		String source = RepeatMasker.getSource();
+		if ((marker.getPath() + '\n' + source).equals(RepeatMasker.importedSource))
+			return;
+		if (marker.exists() && source.equals(new String(Files.readAllBytes(marker.toPath()), StandardCharsets.UTF_8))) {
+			RepeatMasker.importedSource = marker.getPath() + '\n' + source;
+			return;
+		}
+
+		System.out.print("Importing repeat annotation from " + Config.rmskFile + "...");
+		RepeatMasker.deleteContents(RepeatMasker.getDirectory());
+		RepeatMaskProvider.clear();
+		RepeatIntervalBuilder repeats = RepeatMaskerImporter.importRepeats(Config.rmskFile);
+		LinkedHashMap<String, RepeatIntervalIndex> indices = repeats.build();
+		for (String chromosome : indices.keySet())
+			RepeatMasker.saveIntervals(indices.get(chromosome), RepeatMasker.getIntervalFile(chromosome));
+
+		RepeatMasker.saveCategories(repeats.getCategories(RepeatLevel.CLASS), RepeatLevel.CLASS);
+		RepeatMasker.saveCategories(repeats.getCategories(RepeatLevel.NAME), RepeatLevel.NAME);
+		RepeatMasker.saveCategories(repeats.getCategories(RepeatLevel.FAMILY), RepeatLevel.FAMILY);
+		File temporary = new File(marker.getPath() + ".tmp");
+		Files.write(temporary.toPath(), source.getBytes(StandardCharsets.UTF_8));
+		Files.move(temporary.toPath(), marker.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+		RepeatMasker.importedSource = marker.getPath() + '\n' + source;
+		System.out.println("finished.");
+	}
+
+	// path, size and modification time of the configured rmsk dump
+	private static String getSource() {
+		File file = new File(Config.rmskFile);
+		return file.getAbsolutePath() + '\t' + file.length() + '\t' + file.lastModified() + '\n';
+	}
+
+	// source of the complete import of the schema
+	private static File getSourceFile() {
+		return new File(RepeatMasker.getDirectory(), "source.txt");
+	}
+
+	private static void deleteContents(File directory) throws IOException {
+		File[] files = directory.listFiles();
+		if (files == null)
+			return;
+		for (File file : files) {
+			if (file.isDirectory())
+				RepeatMasker.deleteContents(file);
+			Files.delete(file.toPath());
+		}
+	}
+
+	private static void saveCategories(String[] categories, RepeatLevel level) throws IOException {
+		File file = RepeatMasker.getCategoryFile(level);
+		File temporary = new File(file.getPath() + ".tmp");
+		PrintWriter out = new PrintWriter(temporary, "UTF-8");
+		for (String category : categories)
+			out.println(category);
+		out.close();
+		Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	// list of all classes, families or names of an imported dump
+	private static File getCategoryFile(RepeatLevel level) {
+		switch (level) {
+		case CLASS:
+			return new File(RepeatMasker.getDirectory(), "classes.txt");
+		case NAME:
+			return new File(RepeatMasker.getDirectory(), "names.txt");
+		default:
+			return new File(RepeatMasker.getDirectory(), "families.txt");
+		}
+	}
+
+	private static void saveIntervals(RepeatIntervalIndex index, File file) throws IOException {
+		File temporary = new File(file.getPath() + "." + Thread.currentThread().getId() + ".tmp");
+		index.save(temporary);
+		Files.move(temporary.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+				StandardCopyOption.ATOMIC_MOVE);
+	}
+
+	private static File getIntervalFile(String chromosome) {
+		return new File(RepeatMasker.getDirectory(), chromosome + ".intervals");
+	}
+
+	// persisted annotation data of the configured schema (genomes of different schemas share chromosome names)
+	private static File getDirectory() {
+		return new File("rmsk" + File.separator + Config.dbSchema);
+	}
+
+	/**
+	 * @return complete list of all annotated repeat families in the database (or the imported rmsk dump)
 	 */
 	public static LinkedList<String> getRepeatFamilies() {
+		return RepeatMasker.getRepeatCategories(RepeatLevel.FAMILY);
+	}
+
+	/**
+	 * @param level level of the repeat hierarchy
+	 * @return complete list of all annotated repeat classes, families or names in the database (or the imported rmsk
+	 *         dump)
+	 */
+	public static LinkedList<String> getRepeatCategories(RepeatLevel level) {
 		ResultSet rs;
 		LinkedList<String> repeatFamilies = new LinkedList<String>();
 
+		if (RepeatMasker.isImported()) {
+			File categoryFile = RepeatMasker.getCategoryFile(level);
+			try {
+				RepeatMasker.importRepeats();
+				repeatFamilies.addAll(Files.readAllLines(categoryFile.toPath(), StandardCharsets.UTF_8));
+			} catch (IOException e) {
+				System.out.println("ERROR reading repeat categories " + categoryFile);
+				e.printStackTrace();
+				System.exit(0);
+			}
+			return repeatFamilies;
+		}
+
 		db.connect();
-		String query = "SELECT DISTINCT rmsk.repFamily FROM " + Config.dbSchema + ".rmsk;";
+		String query = "SELECT DISTINCT rmsk." + level.getColumn() + " FROM " + Config.dbSchema + ".rmsk;";
 		rs = db.performQuery(query);
 		try {
 			while (rs.next())
-				repeatFamilies.add(rs.getString("rmsk.repFamily"));
+				repeatFamilies.add(rs.getString("rmsk." + level.getColumn()));
 
 			rs.close();
 		} catch (SQLException e) {
@@ -123,44 +289,4 @@ public class RepeatMasker {
 		db.disconnect();
 		return repeatFamilies;
 	}
-
-	private static int[] uncompressIntArray(byte[] bytes) {
-		int[] intArray = null;
-		try {
-			ByteArrayInputStream bais = new ByteArrayInputStream(bytes);
-			BufferedInputStream bis = new BufferedInputStream(bais);
-			LZ4FrameInputStream lz4is = new LZ4FrameInputStream(bis);
-			ObjectInputStream ois = new ObjectInputStream(lz4is);
-			intArray = (int[]) ois.readObject();
-			ois.close();
-		} catch (IOException e) {
-			System.out.println("Error while uncompressing int array");
-			e.printStackTrace();
-		} catch (ClassNotFoundException e) {
-			System.out.println("Error while uncompressing int array");
-			e.printStackTrace();
-		}
-		return intArray;
-	}
-
-	private static byte[] compress(int[] intArray) {
-		byte[] bytesOut = null;
-
-		try {
-			ByteArrayOutputStream baos = new ByteArrayOutputStream();
-			LZ4FrameOutputStream lz4os = new LZ4FrameOutputStream(baos);
-			BufferedOutputStream bos = new BufferedOutputStream(lz4os);
-			ObjectOutputStream oos = new ObjectOutputStream(bos);
-			oos.writeObject(intArray);
-			oos.flush();
-			oos.close();
-			lz4os.close();
-			bytesOut = baos.toByteArray();
-			baos.close();
-		} catch (IOException e) {
-			System.out.println("Error while compressing int array");
-			e.printStackTrace();
-		}
-		return bytesOut;
-	}
 }
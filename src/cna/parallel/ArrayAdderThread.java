@@ -5,9 +5,11 @@ import java.util.concurrent.Callable;
 
 /**
  * Thread adding a sub-partition of large float arrays
+ * @deprecated replaced by ElementwiseTask
  * @author Stefan Grabuschnig
  *
  */
+@Deprecated
 public class ArrayAdderThread implements Callable<Boolean> {
 	private float[] target;
 	private float[] addend;
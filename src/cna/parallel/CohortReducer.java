@@ -0,0 +1,53 @@
+package cna.parallel;
+
+/**
+ * Provides functionality for parallelized reduction of cohorts of coverage tracks (sum, mean, variance, min/max and
+ * count above threshold in one fused pass) and for parallelized element-wise operations on large float arrays. Runs
+ * on the CPU pool of the execution runtime
+ * @author Stefan Grabuschnig
+ *
+ */
+public class CohortReducer {
+
+	/**
+	 * number of positions processed by a single fork/join leaf task
+	 */
+	public static final int BLOCK_SIZE = 1 << 15;
+
+	/**
+	 * Computes per-position statistics over a set of tracks in one parallel pass
+	 * @param tracks coverage tracks (all of equal length)
+	 * @param threshold threshold for counting tracks at or above threshold
+	 * @param doubleAccumulators accumulate in double instead of float precision (recommended for large cohorts)
+	 * @return the statistics of the cohort
+	 */
+	public static CohortStatistics reduce(float[][] tracks, float threshold, boolean doubleAccumulators) {
+		int length = tracks.length > 0 ? tracks[0].length : 0;
+		CohortStatistics statistics = new CohortStatistics(length, tracks.length, threshold);
+
+		if (tracks.length > 0)
+			ExecutionRuntime.getCpuPool().invoke(
+					new CohortReductionTask(tracks, statistics, doubleAccumulators, 0, length, CohortReducer.BLOCK_SIZE));
+		return statistics;
+	}
+
+	/**
+	 * Performs parallelized addition of two float arrays
+	 * @param target target array for addition
+	 * @param addend array added to target
+	 */
+	public static void add(float[] target, float[] addend) {
+		ExecutionRuntime.getCpuPool().invoke(new ElementwiseTask(ElementwiseTask.Operation.ADD, target, addend, 1.0f, 0,
+				target.length, CohortReducer.BLOCK_SIZE));
+	}
+
+	/**
+	 * Performs parallelized division of all elements of a float array
+	 * @param target target array
+	 * @param divisor divisor
+	 */
+	public static void divide(float[] target, float divisor) {
+		ExecutionRuntime.getCpuPool().invoke(new ElementwiseTask(ElementwiseTask.Operation.DIVIDE, target, null, divisor, 0,
+				target.length, CohortReducer.BLOCK_SIZE));
+	}
+}
@@ -0,0 +1,118 @@
+package cna.parallel;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Fork/join task computing all statistics of a CohortStatistics object for a partition of positions in one pass.
+ * Partitions are split until they are smaller than the block size. Variance is computed with Welford's algorithm.
+ * @author Stefan Grabuschnig
+ *
+ */
+public class CohortReductionTask extends RecursiveAction {
+	private static final long serialVersionUID = 1L;
+
+	private final float[][] tracks;
+	private final CohortStatistics statistics;
+	private final boolean doubleAccumulators;
+	private final int positionStart;
+	private final int positionEnd;
+	private final int blockSize;
+
+	/**
+	 * @param tracks coverage tracks (all of equal length)
+	 * @param statistics target for the results
+	 * @param doubleAccumulators accumulate in double instead of float precision
+	 * @param positionStart start position of the partition (inclusive)
+	 * @param positionEnd end position of the partition (exclusive)
+	 * @param blockSize maximum size of a partition processed without splitting
+	 */
+	public CohortReductionTask(float[][] tracks, CohortStatistics statistics, boolean doubleAccumulators,
+			int positionStart, int positionEnd, int blockSize) {
+		this.tracks = tracks;
+		this.statistics = statistics;
+		this.doubleAccumulators = doubleAccumulators;
+		this.positionStart = positionStart;
+		this.positionEnd = positionEnd;
+		this.blockSize = blockSize;
+	}
+
+	@Override
+	protected void compute() {
+		if (this.positionEnd - this.positionStart > this.blockSize) {
+			int positionMiddle = (this.positionStart + this.positionEnd) >>> 1;
+			CohortReductionTask.invokeAll(
+					new CohortReductionTask(this.tracks, this.statistics, this.doubleAccumulators, this.positionStart,
+							positionMiddle, this.blockSize),
+					new CohortReductionTask(this.tracks, this.statistics, this.doubleAccumulators, positionMiddle,
+							this.positionEnd, this.blockSize));
+		} else if (this.doubleAccumulators)
+			this.reduceDouble();
+		else
+			this.reduceFloat();
+	}
+
+	private void reduceDouble() {
+		float threshold = this.statistics.getThreshold();
+
+		for (int p = this.positionStart; p < this.positionEnd; p++) {
+			double sum = 0.0d;
+			double mean = 0.0d;
+			double m2 = 0.0d;
+			float min = Float.POSITIVE_INFINITY;
+			float max = Float.NEGATIVE_INFINITY;
+			int countAbove = 0;
+
+			for (int i = 0; i < this.tracks.length; i++) {
+				float value = this.tracks[i][p];
+				double delta = value - mean;
+				sum += value;
+				mean += delta / (i + 1);
+				m2 += delta * (value - mean);
+				if (value < min)
+					min = value;
+				if (value > max)
+					max = value;
+				if (value >= threshold)
+					countAbove++;
+			}
+			this.store(p, (float) sum, (float) mean, (float) (m2 / this.tracks.length), min, max, countAbove);
+		}
+	}
+
+	private void reduceFloat() {
+		float threshold = this.statistics.getThreshold();
+
+		for (int p = this.positionStart; p < this.positionEnd; p++) {
+			float sum = 0.0f;
+			float mean = 0.0f;
+			float m2 = 0.0f;
+			float min = Float.POSITIVE_INFINITY;
+			float max = Float.NEGATIVE_INFINITY;
+			int countAbove = 0;
+
+			for (int i = 0; i < this.tracks.length; i++) {
+				float value = this.tracks[i][p];
+				float delta = value - mean;
+				sum += value;
+				mean += delta / (i + 1);
+				m2 += delta * (value - mean);
+				if (value < min)
+					min = value;
+				if (value > max)
+					max = value;
+				if (value >= threshold)
+					countAbove++;
+			}
+			this.store(p, sum, mean, m2 / this.tracks.length, min, max, countAbove);
+		}
+	}
+
+	private void store(int p, float sum, float mean, float variance, float min, float max, int countAbove) {
+		this.statistics.sum[p] = sum;
+		this.statistics.mean[p] = mean;
+		this.statistics.variance[p] = variance;
+		this.statistics.min[p] = min;
+		this.statistics.max[p] = max;
+		this.statistics.countAboveThreshold[p] = countAbove;
+	}
+}
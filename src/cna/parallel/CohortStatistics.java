@@ -0,0 +1,107 @@
+package cna.parallel;
+
+/**
+ * Stores per-position statistics of a cohort of coverage tracks (result of CohortReducer.reduce)
+ * @author Stefan Grabuschnig
+ *
+ */
+public class CohortStatistics {
+	private final int numberOfTracks;
+	private final float threshold;
+
+	final float[] sum;
+	final float[] mean;
+	final float[] variance;
+	final float[] min;
+	final float[] max;
+	final int[] countAboveThreshold;
+
+	/**
+	 * @param length number of positions
+	 * @param numberOfTracks number of reduced tracks
+	 * @param threshold threshold used for countAboveThreshold
+	 */
+	CohortStatistics(int length, int numberOfTracks, float threshold) {
+		this.numberOfTracks = numberOfTracks;
+		this.threshold = threshold;
+		this.sum = new float[length];
+		this.mean = new float[length];
+		this.variance = new float[length];
+		this.min = new float[length];
+		this.max = new float[length];
+		this.countAboveThreshold = new int[length];
+	}
+
+	/**
+	 * @return number of positions
+	 */
+	public int getLength() {
+		return this.sum.length;
+	}
+
+	/**
+	 * @return number of reduced tracks
+	 */
+	public int getNumberOfTracks() {
+		return this.numberOfTracks;
+	}
+
+	/**
+	 * @return threshold used for countAboveThreshold
+	 */
+	public float getThreshold() {
+		return this.threshold;
+	}
+
+	/**
+	 * @return per-position sum over all tracks
+	 */
+	public float[] getSum() {
+		return this.sum;
+	}
+
+	/**
+	 * @return per-position arithmetic mean
+	 */
+	public float[] getMean() {
+		return this.mean;
+	}
+
+	/**
+	 * @return per-position population variance (divided by the number of tracks)
+	 */
+	public float[] getVariance() {
+		return this.variance;
+	}
+
+	/**
+	 * @return per-position standard deviation (square root of the population variance)
+	 */
+	public float[] getStandardDeviation() {
+		float[] standardDeviation = new float[this.variance.length];
+		for (int p = 0; p < standardDeviation.length; p++)
+			standardDeviation[p] = (float) Math.sqrt(this.variance[p]);
+		return standardDeviation;
+	}
+
+	/**
+	 * @return per-position minimum
+	 */
+	public float[] getMin() {
+		return this.min;
+	}
+
+	/**
+	 * @return per-position maximum
+	 */
+	public float[] getMax() {
+		return this.max;
+	}
+
+	/**
+	 * @return per-position number of tracks with a value greater than or equal to the threshold
+	 */
+	public int[] getCountAboveThreshold() {
+		return this.countAboveThreshold;
+	}
+}
@@ -0,0 +1,97 @@
+package cna.parallel;
+
+/**
+ * Element-wise kernels for the hot per-base loops over coverage arrays. All operations work on the range [from, to)
+ * and produce results identical to the plain scalar loops. Use CoverageKernels.get() to obtain the implementation
+ * selected for the running JVM.
+ * @author Stefan Grabuschnig
+ *
+ */
+public interface CoverageKernel {
+
+	/**
+	 * target[i] += addend[i]
+	 * @param target target array
+	 * @param addend array added to target
+	 * @param from start position (inclusive)
+	 * @param to end position (exclusive)
+	 */
+	void add(float[] target, float[] addend, int from, int to);
+
+	/**
+	 * target[i] += addend[i]
+	 * @param target target array
+	 * @param addend array added to target
+	 * @param from start position (inclusive)
+	 * @param to end position (exclusive)
+	 */
+	void add(int[] target, int[] addend, int from, int to);
+
+	/**
+	 * target[i] *= factor
+	 * @param target target array
+	 * @param factor scaling factor
+	 * @param from start position (inclusive)
+	 * @param to end position (exclusive)
+	 */
+	void scale(float[] target, float factor, int from, int to);
+
+	/**
+	 * target[i] /= divisor
+	 * @param target target array
+	 * @param divisor divisor
+	 * @param from start position (inclusive)
+	 * @param to end position (exclusive)
+	 */
+	void divide(float[] target, float divisor, int from, int to);
+
+	/**
+	 * @param values int array
+	 * @param from start position (inclusive)
+	 * @param to end position (exclusive)
+	 * @return the sum of values
+	 */
+	long sum(int[] values, int from, int to);
+
+	/**
+	 * prefix[0] = 0, prefix[i - from + 1] = prefix[i - from] + values[i]
+	 * @param values int array
+	 * @param prefix target for the prefix sums, must hold at least to - from + 1 elements
+	 * @param from start position (inclusive)
+	 * @param to end position (exclusive)
+	 */
+	void prefixSum(int[] values, long[] prefix, int from, int to);
+
+	/**
+	 * @param values int array
+	 * @param valuesOffset first position in values
+	 * @param mask mask array, positions with mask[maskOffset + i] != 0 are summed
+	 * @param maskOffset first position in mask
+	 * @param length number of positions
+	 * @return the sum of values at masked positions
+	 */
+	long maskedSum(int[] values, int valuesOffset, int[] mask, int maskOffset, int length);
+
+	/**
+	 * normalized[i] = (float) (absolute[i] / averageCoverage)
+	 * @param absolute absolute coverage
+	 * @param normalized target for the normalized coverage
+	 * @param averageCoverage average coverage
+	 * @param from start position (inclusive)
+	 * @param to end position (exclusive)
+	 */
+	void normalize(int[] absolute, float[] normalized, double averageCoverage, int from, int to);
+
+	/**
+	 * Finds all positions where values cross the threshold, i.e. where (values[i] &gt;= threshold) differs from the
+	 * state of the previous position
+	 * @param values float array
+	 * @param threshold the threshold
+	 * @param above state before position from (true if the previous value was at or above threshold)
+	 * @param boundaries target for the positions of crossings, must hold at least to - from elements
+	 * @param from start position (inclusive)
+	 * @param to end position (exclusive)
+	 * @return the number of crossings written to boundaries
+	 */
+	int findThresholdCrossings(float[] values, float threshold, boolean above, int[] boundaries, int from, int to);
+}
@@ -0,0 +1,53 @@
+package cna.parallel;
+
+import cna.config.Config;
+
+/**
+ * Selects the coverage kernel implementation at startup. The SIMD implementation is used if enabled in config and
+ * the vector API is available in the running JVM, otherwise the scalar implementation is used.
+ * @author Stefan Grabuschnig
+ *
+ */
+public class CoverageKernels {
+
+	private static final CoverageKernel kernel = CoverageKernels.select();
+
+	private static CoverageKernel select() {
+		if (Config.vectorKernels) {
+			try {
+				return (CoverageKernel) Class.forName("cna.parallel.VectorCoverageKernel").getDeclaredConstructor()
+						.newInstance();
+			} catch (Throwable t) {
+				// vector API not available (module not added or unsupported JVM)
+			}
+		}
+		return new ScalarCoverageKernel();
+	}
+
+	/**
+	 * @return the selected coverage kernel
+	 */
+	public static CoverageKernel get() {
+		return CoverageKernels.kernel;
+	}
+
+	/**
+	 * Converts a double threshold to the smallest float not below it, so that (value &gt;= result) equals
+	 * ((double) value &gt;= threshold) for every float value
+	 * @param threshold a double threshold
+	 * @return the equivalent float threshold
+	 */
+	public static float floatThreshold(double threshold) {
+		float floatThreshold = (float) threshold;
+		if (floatThreshold < threshold)
+			floatThreshold = Math.nextUp(floatThreshold);
+		return floatThreshold;
+	}
+
+	/**
+	 * @return true if the SIMD implementation is used
+	 */
+	public static boolean isVectorized() {
+		return !(CoverageKernels.kernel instanceof ScalarCoverageKernel);
+	}
+}
@@ -0,0 +1,66 @@
+package cna.parallel;
+
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Fork/join task performing an element-wise operation on a partition of a large float array. Partitions are split
+ * until they are smaller than the block size.
+ * @author Stefan Grabuschnig
+ *
+ */
+public class ElementwiseTask extends RecursiveAction {
+	private static final long serialVersionUID = 1L;
+
+	/**
+	 * supported element-wise operations
+	 */
+	public enum Operation {
+		/** target[i] += addend[i] */
+		ADD,
+		/** target[i] /= divisor */
+		DIVIDE
+	}
+
+	private final Operation operation;
+	private final float[] target;
+	private final float[] addend;
+	private final float divisor;
+	private final int positionStart;
+	private final int positionEnd;
+	private final int blockSize;
+
+	/**
+	 * @param operation the element-wise operation
+	 * @param target target array
+	 * @param addend array added to target (ADD only)
+	 * @param divisor divisor for all elements of target (DIVIDE only)
+	 * @param positionStart start position of the partition (inclusive)
+	 * @param positionEnd end position of the partition (exclusive)
+	 * @param blockSize maximum size of a partition processed without splitting
+	 */
+	public ElementwiseTask(Operation operation, float[] target, float[] addend, float divisor, int positionStart,
+			int positionEnd, int blockSize) {
+		this.operation = operation;
+		this.target = target;
+		this.addend = addend;
+		this.divisor = divisor;
+		this.positionStart = positionStart;
+		this.positionEnd = positionEnd;
+		this.blockSize = blockSize;
+	}
+
+	@Override
+	protected void compute() {
+		if (this.positionEnd - this.positionStart > this.blockSize) {
+			int positionMiddle = (this.positionStart + this.positionEnd) >>> 1;
+			ElementwiseTask.invokeAll(
+					new ElementwiseTask(this.operation, this.target, this.addend, this.divisor, this.positionStart,
+							positionMiddle, this.blockSize),
+					new ElementwiseTask(this.operation, this.target, this.addend, this.divisor, positionMiddle,
+							this.positionEnd, this.blockSize));
+		} else if (this.operation == Operation.ADD)
+			CoverageKernels.get().add(this.target, this.addend, this.positionStart, this.positionEnd);
+		else
+			CoverageKernels.get().divide(this.target, this.divisor, this.positionStart, this.positionEnd);
+	}
+}
@@ -0,0 +1,393 @@
+package cna.parallel;
+
+import java.util.List;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinWorkerThread;
+import java.util.concurrent.Future;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.RejectedExecutionHandler;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+import cna.config.Config;
+
+/**
+ * Central execution runtime. Provides named, bounded pools per workload class: a fork/join pool for CPU bound work
+ * and fixed size pools with bounded queues for blocking file I/O and database queries. Pool sizes are taken from
+ * config (system properties cna.threads.cpu, cna.threads.io, cna.threads.db and cna.queue.capacity). If supported by
+ * the JVM (Java 21+) and enabled in config, blocking I/O runs on virtual threads instead (one thread per task), while
+ * the number of concurrent database connections stays limited by the database permits. Pools are created on first
+ * use and shut down by shutdown() or a shutdown hook. All parallel code should run its tasks here instead of creating
+ * own executors.
+ * @author Stefan Grabuschnig
+ *
+ */
+public class ExecutionRuntime {
+
+	/**
+	 * workload classes with separate pools
+	 */
+	public enum WorkloadClass {
+		/** CPU bound computation (fork/join) */
+		CPU,
+		/** blocking file I/O */
+		IO,
+		/** blocking database queries */
+		DB
+	}
+
+	/**
+	 * maximum time to wait for running tasks on shutdown (seconds)
+	 */
+	public static final long SHUTDOWN_TIMEOUT = 30;
+
+	private static ForkJoinPool cpuPool;
+	private static MeteredExecutor ioPool;
+	private static MeteredThreadPoolExecutor dbPool;
+	private static Semaphore databasePermits;
+	private static boolean shutdownHookRegistered = false;
+
+	/**
+	 * @return the fork/join pool for CPU bound work
+	 */
+	public static synchronized ForkJoinPool getCpuPool() {
+		if (ExecutionRuntime.cpuPool == null) {
+			ExecutionRuntime.cpuPool = new ForkJoinPool(Math.max(1, Config.numThreads), new CpuThreadFactory(), null,
+					false);
+			ExecutionRuntime.registerShutdownHook();
+		}
+		return ExecutionRuntime.cpuPool;
+	}
+
+	/**
+	 * @param workloadClass the workload class
+	 * @return the executor of the workload class
+	 */
+	public static synchronized ExecutorService getExecutor(WorkloadClass workloadClass) {
+		switch (workloadClass) {
+		case IO:
+			if (ExecutionRuntime.ioPool == null) {
+				ExecutorService virtualThreads = Config.virtualThreads
+						? ExecutionRuntime.createVirtualThreadExecutor("cna-io-virtual-")
+						: null;
+				if (virtualThreads != null)
+					ExecutionRuntime.ioPool = new VirtualThreadExecutor("cna-io-virtual", virtualThreads);
+				else
+					ExecutionRuntime.ioPool = new MeteredThreadPoolExecutor("cna-io", Math.max(1, Config.ioThreads),
+							Math.max(1, Config.queueCapacity));
+				ExecutionRuntime.registerShutdownHook();
+			}
+			return (ExecutorService) ExecutionRuntime.ioPool;
+		case DB:
+			if (ExecutionRuntime.dbPool == null) {
+				ExecutionRuntime.dbPool = new MeteredThreadPoolExecutor("cna-db", Math.max(1, Config.dbThreads),
+						Math.max(1, Config.queueCapacity));
+				ExecutionRuntime.registerShutdownHook();
+			}
+			return ExecutionRuntime.dbPool;
+		default:
+			return ExecutionRuntime.getCpuPool();
+		}
+	}
+
+	/**
+	 * Submits a task to the pool of a workload class. Blocks while the queue of an I/O or DB pool is full.
+	 * @param workloadClass the workload class
+	 * @param task the task
+	 * @return future of the result
+	 */
+	public static <T> Future<T> submit(WorkloadClass workloadClass, Callable<T> task) {
+		return ExecutionRuntime.getExecutor(workloadClass).submit(task);
+	}
+
+	/**
+	 * Runs a task asynchronously on the pool of a workload class. Blocks while the queue of a bounded pool is full.
+	 * @param workloadClass the workload class
+	 * @param task the task
+	 * @return future completed with the result or exceptionally with the exception thrown by the task
+	 */
+	public static <T> CompletableFuture<T> supplyAsync(WorkloadClass workloadClass, final Callable<T> task) {
+		final CompletableFuture<T> future = new CompletableFuture<T>();
+		ExecutionRuntime.getExecutor(workloadClass).execute(new Runnable() {
+			@Override
+			public void run() {
+				try {
+					future.complete(task.call());
+				} catch (Throwable t) {
+					future.completeExceptionally(t);
+				}
+			}
+		});
+		return future;
+	}
+
+	/**
+	 * Permits for database connections. Every database query has to hold a permit, so that the number of concurrent
+	 * connections is limited by config regardless of the executing thread.
+	 * @return the database permits
+	 */
+	public static synchronized Semaphore getDatabasePermits() {
+		if (ExecutionRuntime.databasePermits == null)
+			ExecutionRuntime.databasePermits = new Semaphore(Math.max(1, Config.dbThreads), true);
+		return ExecutionRuntime.databasePermits;
+	}
+
+	/**
+	 * @return true if blocking I/O runs on virtual threads
+	 */
+	public static boolean isVirtualThreadExecutor() {
+		return ExecutionRuntime.getExecutor(WorkloadClass.IO) instanceof VirtualThreadExecutor;
+	}
+
+	/**
+	 * @param workloadClass the workload class
+	 * @return current metrics of the pool of the workload class
+	 */
+	public static synchronized PoolMetrics getMetrics(WorkloadClass workloadClass) {
+		if (workloadClass == WorkloadClass.CPU) {
+			ForkJoinPool pool = ExecutionRuntime.getCpuPool();
+			return new PoolMetrics("cna-cpu", pool.getParallelism(), pool.getActiveThreadCount(),
+					pool.getQueuedSubmissionCount() + pool.getQueuedTaskCount(), -1, Double.NaN);
+		}
+		return ((MeteredExecutor) ExecutionRuntime.getExecutor(workloadClass)).getMetrics();
+	}
+
+	/**
+	 * Prints the metrics of all pools
+	 */
+	public static void printMetrics() {
+		for (WorkloadClass workloadClass : WorkloadClass.values())
+			System.out.println(ExecutionRuntime.getMetrics(workloadClass));
+	}
+
+	/**
+	 * Shuts down all pools. Running and queued tasks are completed within the shutdown timeout, remaining tasks are
+	 * interrupted. Pools are created again on next use.
+	 */
+	public static synchronized void shutdown() {
+		ExecutorService[] pools = { ExecutionRuntime.cpuPool, (ExecutorService) ExecutionRuntime.ioPool,
+				ExecutionRuntime.dbPool };
+		ExecutionRuntime.cpuPool = null;
+		ExecutionRuntime.ioPool = null;
+		ExecutionRuntime.dbPool = null;
+
+		for (ExecutorService pool : pools)
+			if (pool != null)
+				pool.shutdown();
+
+		try {
+			for (ExecutorService pool : pools)
+				if (pool != null && !pool.awaitTermination(ExecutionRuntime.SHUTDOWN_TIMEOUT, TimeUnit.SECONDS))
+					pool.shutdownNow();
+		} catch (InterruptedException e) {
+			for (ExecutorService pool : pools)
+				if (pool != null)
+					pool.shutdownNow();
+			Thread.currentThread().interrupt();
+		}
+	}
+
+	/**
+	 * Creates a thread per task executor with named virtual threads. Reflective, since virtual threads are not
+	 * available before Java 21.
+	 * @param namePrefix prefix of the thread names
+	 * @return the executor or null if virtual threads are not supported
+	 */
+	private static ExecutorService createVirtualThreadExecutor(String namePrefix) {
+		try {
+			Class<?> builderClass = Class.forName("java.lang.Thread$Builder");
+			Object builder = Thread.class.getMethod("ofVirtual").invoke(null);
+			builder = builderClass.getMethod("name", String.class, long.class).invoke(builder, namePrefix, 0L);
+			ThreadFactory threadFactory = (ThreadFactory) builderClass.getMethod("factory").invoke(builder);
+			return (ExecutorService) Executors.class.getMethod("newThreadPerTaskExecutor", ThreadFactory.class)
+					.invoke(null, threadFactory);
+		} catch (Throwable t) {
+			// virtual threads not supported (or preview features not enabled)
+			return null;
+		}
+	}
+
+	private static void registerShutdownHook() {
+		if (!ExecutionRuntime.shutdownHookRegistered) {
+			Runtime.getRuntime().addShutdownHook(new Thread(new Runnable() {
+				@Override
+				public void run() {
+					ExecutionRuntime.shutdown();
+				}
+			}, "cna-shutdown"));
+			ExecutionRuntime.shutdownHookRegistered = true;
+		}
+	}
+
+	/**
+	 * Creates named daemon worker threads for the CPU pool
+	 */
+	private static class CpuThreadFactory implements ForkJoinPool.ForkJoinWorkerThreadFactory {
+		private final AtomicInteger threadNumber = new AtomicInteger();
+
+		@Override
+		public ForkJoinWorkerThread newThread(ForkJoinPool pool) {
+			ForkJoinWorkerThread thread = ForkJoinPool.defaultForkJoinWorkerThreadFactory.newThread(pool);
+			thread.setName("cna-cpu-" + this.threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+	/**
+	 * Creates named daemon threads
+	 */
+	private static class NamedThreadFactory implements ThreadFactory {
+		private final String name;
+		private final AtomicInteger threadNumber = new AtomicInteger();
+
+		NamedThreadFactory(String name) {
+			this.name = name;
+		}
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, this.name + "-" + this.threadNumber.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+
+	/**
+	 * Blocks the submitting thread until the queue has space (back pressure instead of rejection)
+	 */
+	private static class BlockingSubmissionPolicy implements RejectedExecutionHandler {
+		@Override
+		public void rejectedExecution(Runnable runnable, ThreadPoolExecutor executor) {
+			if (executor.isShutdown())
+				throw new RejectedExecutionException("pool is shut down");
+			try {
+				executor.getQueue().put(runnable);
+			} catch (InterruptedException e) {
+				Thread.currentThread().interrupt();
+				throw new RejectedExecutionException("interrupted while waiting for queue space", e);
+			}
+		}
+	}
+
+	/**
+	 * Executor reporting metrics
+	 */
+	private interface MeteredExecutor {
+		PoolMetrics getMetrics();
+	}
+
+	/**
+	 * Thread per task executor on virtual threads counting running and completed tasks
+	 */
+	private static class VirtualThreadExecutor extends AbstractExecutorService implements MeteredExecutor {
+		private final String name;
+		private final ExecutorService executor;
+		private final AtomicInteger activeThreads = new AtomicInteger();
+		private final AtomicLong completedTasks = new AtomicLong();
+
+		VirtualThreadExecutor(String name, ExecutorService executor) {
+			this.name = name;
+			this.executor = executor;
+		}
+
+		@Override
+		public void execute(final Runnable runnable) {
+			this.activeThreads.incrementAndGet();
+			try {
+				this.executor.execute(new Runnable() {
+					@Override
+					public void run() {
+						try {
+							runnable.run();
+						} finally {
+							VirtualThreadExecutor.this.activeThreads.decrementAndGet();
+							VirtualThreadExecutor.this.completedTasks.incrementAndGet();
+						}
+					}
+				});
+			} catch (RejectedExecutionException e) {
+				this.activeThreads.decrementAndGet();
+				throw e;
+			}
+		}
+
+		@Override
+		public void shutdown() {
+			this.executor.shutdown();
+		}
+
+		@Override
+		public List<Runnable> shutdownNow() {
+			return this.executor.shutdownNow();
+		}
+
+		@Override
+		public boolean isShutdown() {
+			return this.executor.isShutdown();
+		}
+
+		@Override
+		public boolean isTerminated() {
+			return this.executor.isTerminated();
+		}
+
+		@Override
+		public boolean awaitTermination(long timeout, TimeUnit unit) throws InterruptedException {
+			return this.executor.awaitTermination(timeout, unit);
+		}
+
+		@Override
+		public PoolMetrics getMetrics() {
+			return new PoolMetrics(this.name, PoolMetrics.UNBOUNDED, this.activeThreads.get(), 0,
+					this.completedTasks.get(), Double.NaN);
+		}
+	}
+
+	/**
+	 * Fixed size pool with bounded queue tracking the time its threads spend executing tasks
+	 */
+	private static class MeteredThreadPoolExecutor extends ThreadPoolExecutor implements MeteredExecutor {
+		private final String name;
+		private final long creationTime = System.nanoTime();
+		private final AtomicLong busyTime = new AtomicLong();
+		private final ThreadLocal<Long> taskStart = new ThreadLocal<Long>();
+
+		MeteredThreadPoolExecutor(String name, int numThreads, int queueCapacity) {
+			super(numThreads, numThreads, 60L, TimeUnit.SECONDS, new ArrayBlockingQueue<Runnable>(queueCapacity),
+					new NamedThreadFactory(name), new BlockingSubmissionPolicy());
+			this.name = name;
+			this.allowCoreThreadTimeOut(true);
+		}
+
+		@Override
+		protected void beforeExecute(Thread thread, Runnable runnable) {
+			super.beforeExecute(thread, runnable);
+			this.taskStart.set(System.nanoTime());
+		}
+
+		@Override
+		protected void afterExecute(Runnable runnable, Throwable throwable) {
+			this.busyTime.addAndGet(System.nanoTime() - this.taskStart.get());
+			super.afterExecute(runnable, throwable);
+		}
+
+		@Override
+		public PoolMetrics getMetrics() {
+			long elapsedTime = Math.max(1, System.nanoTime() - this.creationTime);
+			return new PoolMetrics(this.name, this.getMaximumPoolSize(), this.getActiveCount(), this.getQueue().size(),
+					this.getCompletedTaskCount(),
+					(double) this.busyTime.get() / ((double) elapsedTime * this.getMaximumPoolSize()));
+		}
+	}
+}
@@ -2,20 +2,18 @@ package cna.parallel;
 
 import java.util.ArrayList;
 import java.util.concurrent.Callable;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 
 import cna.config.Config;
 
 /**
  * Provides functionality for parallelized addition of large float arrays. Number of threads specified in config
+ * @deprecated replaced by CohortReducer.add
  * @author Stefan Grabuschnig
  *
  */
+@Deprecated
 public class ParallelArrayAdder {
 	
-	protected static final ExecutorService executor = Executors.newCachedThreadPool();
-	
 	/**
 	 * Performs parallelized addition of two float arrays
 	 * @param target target array for addition
@@ -36,6 +34,6 @@ public class ParallelArrayAdder {
 		threads.add(new ArrayAdderThread(target, addend, positionStart, target.length - 1));
 
 		// execute Threads!
-		ParallelArrayAdder.executor.invokeAll(threads);
+		ExecutionRuntime.getCpuPool().invokeAll(threads);
 	}
 }
@@ -0,0 +1,64 @@
+package cna.parallel;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.concurrent.RecursiveTask;
+
+import cna.data.Alignment;
+import cna.data.CoverageCursor;
+
+/**
+ * Fork/join task loading and summing the normalized coverage of a contiguous range of alignments for one chromosome
+ * into a private buffer (in order of the alignments).
+ * @author Stefan Grabuschnig
+ *
+ */
+public class PartialSumTask extends RecursiveTask<float[]> {
+	private static final long serialVersionUID = 1L;
+
+	private final ArrayList<Alignment> alignments;
+	private final String chromosome;
+	private final int chromosomeSize;
+	private final int alignmentStart;
+	private final int alignmentEnd;
+
+	/**
+	 * @param alignments list of alignments
+	 * @param chromosome name of the chromosome
+	 * @param chromosomeSize size of the chromosome
+	 * @param alignmentStart index of the first alignment (inclusive)
+	 * @param alignmentEnd index of the last alignment (exclusive)
+	 */
+	public PartialSumTask(ArrayList<Alignment> alignments, String chromosome, int chromosomeSize, int alignmentStart,
+			int alignmentEnd) {
+		this.alignments = alignments;
+		this.chromosome = chromosome;
+		this.chromosomeSize = chromosomeSize;
+		this.alignmentStart = alignmentStart;
+		this.alignmentEnd = alignmentEnd;
+	}
+
+	@Override
+	protected float[] compute() {
+		// load, inflate and accumulate the subset into a private buffer
+		float[] sum = new float[this.chromosomeSize];
+		for (int a = this.alignmentStart; a < this.alignmentEnd; a++) {
+			try {
+				CoverageCursor cursor = this.alignments.get(a).openNormalizedCoverageCursor(this.chromosome,
+						CoverageCursor.DEFAULT_CHUNK_SIZE);
+				while (cursor.next()) {
+					float[] chunk = cursor.getFloatChunk();
+					int chunkStart = cursor.getChunkStart();
+					for (int c = 0; c < cursor.getChunkLength(); c++)
+						sum[chunkStart + c] += chunk[c];
+				}
+				cursor.close();
+			} catch (IOException e) {
+				throw new UncheckedIOException(
+						"ERROR reading covN file for " + this.alignments.get(a).getID() + ":" + this.chromosome, e);
+			}
+		}
+		return sum;
+	}
+}
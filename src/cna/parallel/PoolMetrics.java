@@ -0,0 +1,102 @@
+package cna.parallel;
+
+/**
+ * Snapshot of the state of a pool of the execution runtime
+ * @author Stefan Grabuschnig
+ *
+ */
+public class PoolMetrics {
+
+	/**
+	 * parallelism of pools without thread limit
+	 */
+	public static final int UNBOUNDED = Integer.MAX_VALUE;
+
+	private final String name;
+	private final int parallelism;
+	private final int activeThreads;
+	private final long queueDepth;
+	private final long completedTasks;
+	private final double busyTimeFraction;
+
+	/**
+	 * @param name name of the pool
+	 * @param parallelism maximum number of threads (UNBOUNDED if not limited)
+	 * @param activeThreads number of threads currently executing tasks
+	 * @param queueDepth number of tasks waiting for execution
+	 * @param completedTasks number of completed tasks (-1 if not tracked)
+	 * @param busyTimeFraction fraction of the thread time spent executing tasks since creation (NaN if not tracked)
+	 */
+	public PoolMetrics(String name, int parallelism, int activeThreads, long queueDepth, long completedTasks,
+			double busyTimeFraction) {
+		this.name = name;
+		this.parallelism = parallelism;
+		this.activeThreads = activeThreads;
+		this.queueDepth = queueDepth;
+		this.completedTasks = completedTasks;
+		this.busyTimeFraction = busyTimeFraction;
+	}
+
+	/**
+	 * @return name of the pool
+	 */
+	public String getName() {
+		return this.name;
+	}
+
+	/**
+	 * @return maximum number of threads (UNBOUNDED if not limited)
+	 */
+	public int getParallelism() {
+		return this.parallelism;
+	}
+
+	/**
+	 * @return number of threads currently executing tasks
+	 */
+	public int getActiveThreads() {
+		return this.activeThreads;
+	}
+
+	/**
+	 * @return number of tasks waiting for execution
+	 */
+	public long getQueueDepth() {
+		return this.queueDepth;
+	}
+
+	/**
+	 * @return number of completed tasks (-1 if not tracked)
+	 */
+	public long getCompletedTasks() {
+		return this.completedTasks;
+	}
+
+	/**
+	 * @return fraction of threads currently executing tasks (NaN if the number of threads is not limited)
+	 */
+	public double getUtilization() {
+		if (this.parallelism == PoolMetrics.UNBOUNDED)
+			return Double.NaN;
+		return (double) this.activeThreads / this.parallelism;
+	}
+
+	/**
+	 * @return fraction of the thread time spent executing tasks since creation of the pool (NaN if not tracked)
+	 */
+	public double getBusyTimeFraction() {
+		return this.busyTimeFraction;
+	}
+
+	@Override
+	public String toString() {
+		String output = this.name + ": " + this.activeThreads + "/"
+				+ (this.parallelism == PoolMetrics.UNBOUNDED ? "unbounded" : this.parallelism) + " active, "
+				+ this.queueDepth + " queued";
+		if (this.completedTasks >= 0)
+			output += ", " + this.completedTasks + " completed";
+		if (!Double.isNaN(this.busyTimeFraction))
+			output += ", " + String.format("%.1f", 100.0d * this.busyTimeFraction) + "% busy";
+		return output;
+	}
+}
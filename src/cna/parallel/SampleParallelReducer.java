@@ -0,0 +1,151 @@
+package cna.parallel;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+
+import cna.data.Alignment;
+import cna.data.CoverageCursor;
+
+/**
+ * Provides functionality to compute cohort means of normalized coverage with sample level parallelism. The alignments
+ * are split into one contiguous subset per worker, each worker loads, inflates and accumulates its subset into its own
+ * buffer and the buffers are added in order of the subsets. The number of workers (and buffers) is limited by the
+ * parallelism of the CPU pool of the execution runtime and by the available heap memory.
+ * @author Stefan Grabuschnig
+ *
+ */
+public class SampleParallelReducer {
+
+	/**
+	 * fraction of the currently available heap memory that may be used for partial sum buffers
+	 */
+	public static final double MEMORY_FRACTION = 0.75d;
+
+	/**
+	 * @return the memory that may currently be used for partial sum buffers (bytes)
+	 */
+	public static long getMemoryBudget() {
+		Runtime runtime = Runtime.getRuntime();
+		long availableMemory = runtime.maxMemory() - (runtime.totalMemory() - runtime.freeMemory());
+		return (long) (SampleParallelReducer.MEMORY_FRACTION * availableMemory);
+	}
+
+	/**
+	 * @param chromosomeSize size of the chromosome
+	 * @param numberOfAlignments number of alignments
+	 * @return the number of workers (disjoint alignment subsets) fitting into the available memory
+	 */
+	public static int getDegreeOfParallelism(int chromosomeSize, int numberOfAlignments) {
+		long fittingBuffers = SampleParallelReducer.getMemoryBudget()
+				/ SampleParallelReducer.getBufferSize(chromosomeSize);
+		int workers = Math.min(ExecutionRuntime.getCpuPool().getParallelism(), numberOfAlignments);
+		return (int) Math.max(1, Math.min(workers, fittingBuffers));
+	}
+
+	/**
+	 * Sums the normalized coverage of all alignments. With a degree of parallelism of one, the result equals the
+	 * sequential float sum in order of the alignments, otherwise float rounding may differ in the last digit.
+	 * @param alignments list of alignments
+	 * @param chromosome name of the chromosome
+	 * @return the position-wise sum of the normalized coverage
+	 * @throws IOException if a coverage file cannot be read
+	 */
+	public static float[] sumNormalizedCoverage(ArrayList<Alignment> alignments, String chromosome)
+			throws IOException {
+		int chromosomeSize = alignments.get(0).getGenome().getChromosomeSize(chromosome);
+		return SampleParallelReducer.sumNormalizedCoverage(alignments, chromosome,
+				SampleParallelReducer.getDegreeOfParallelism(chromosomeSize, alignments.size()));
+	}
+
+	/**
+	 * Sums the normalized coverage of all alignments with a given number of workers. Each worker sums a contiguous
+	 * subset of the alignments in order, partial sums are added pairwise in a fixed tree. The result only depends on
+	 * the number of workers, not on the order of completion.
+	 * @param alignments list of alignments
+	 * @param chromosome name of the chromosome
+	 * @param degreeOfParallelism number of workers (partial sum buffers)
+	 * @return the position-wise sum of the normalized coverage
+	 * @throws IOException if a coverage file cannot be read
+	 */
+	public static float[] sumNormalizedCoverage(ArrayList<Alignment> alignments, String chromosome,
+			int degreeOfParallelism) throws IOException {
+		int chromosomeSize = alignments.get(0).getGenome().getChromosomeSize(chromosome);
+		degreeOfParallelism = Math.max(1, Math.min(degreeOfParallelism, alignments.size()));
+
+		// exactly one task (and buffer) per contiguous subset of alignments
+		ArrayList<PartialSumTask> tasks = new ArrayList<PartialSumTask>(degreeOfParallelism);
+		for (int i = 0; i < degreeOfParallelism; i++)
+			tasks.add(new PartialSumTask(alignments, chromosome, chromosomeSize,
+					(int) ((long) alignments.size() * i / degreeOfParallelism),
+					(int) ((long) alignments.size() * (i + 1) / degreeOfParallelism)));
+
+		try {
+			if (degreeOfParallelism == 1)
+				return ExecutionRuntime.getCpuPool().invoke(tasks.get(0));
+
+			for (PartialSumTask task : tasks)
+				ExecutionRuntime.getCpuPool().execute(task);
+
+			float[][] partialSums = new float[degreeOfParallelism][];
+			for (int i = 0; i < degreeOfParallelism; i++) {
+				partialSums[i] = tasks.get(i).join();
+				tasks.set(i, null);
+			}
+
+			// add neighbouring partial sums pairwise in a fixed tree, the additions of a level run concurrently
+			for (int stride = 1; stride < degreeOfParallelism; stride *= 2) {
+				ArrayList<ElementwiseTask> additions = new ArrayList<ElementwiseTask>(degreeOfParallelism);
+				for (int i = 0; i + stride < degreeOfParallelism; i += 2 * stride) {
+					ElementwiseTask addition = new ElementwiseTask(ElementwiseTask.Operation.ADD, partialSums[i],
+							partialSums[i + stride], 1.0f, 0, chromosomeSize, CohortReducer.BLOCK_SIZE);
+					ExecutionRuntime.getCpuPool().execute(addition);
+					additions.add(addition);
+				}
+				for (int i = 0; i + stride < degreeOfParallelism; i += 2 * stride) {
+					additions.get(i / (2 * stride)).join();
+					partialSums[i + stride] = null;
+				}
+			}
+			float[] sum = partialSums[0];
+			return sum;
+		} catch (UncheckedIOException e) {
+			throw e.getCause();
+		}
+	}
+
+	/**
+	 * @param alignments list of alignments
+	 * @param chromosome name of the chromosome
+	 * @return the position-wise mean of the normalized coverage
+	 * @throws IOException if a coverage file cannot be read
+	 */
+	public static float[] meanNormalizedCoverage(ArrayList<Alignment> alignments, String chromosome)
+			throws IOException {
+		float[] mean = SampleParallelReducer.sumNormalizedCoverage(alignments, chromosome);
+		CohortReducer.divide(mean, alignments.size());
+		return mean;
+	}
+
+	/**
+	 * @param alignments list of alignments
+	 * @param chromosome name of the chromosome
+	 * @param degreeOfParallelism number of workers (partial sum buffers)
+	 * @return the position-wise mean of the normalized coverage
+	 * @throws IOException if a coverage file cannot be read
+	 */
+	public static float[] meanNormalizedCoverage(ArrayList<Alignment> alignments, String chromosome,
+			int degreeOfParallelism) throws IOException {
+		float[] mean = SampleParallelReducer.sumNormalizedCoverage(alignments, chromosome, degreeOfParallelism);
+		CohortReducer.divide(mean, alignments.size());
+		return mean;
+	}
+
+	/**
+	 * @param chromosomeSize size of the chromosome
+	 * @return the memory required by a single worker (bytes)
+	 */
+	public static long getBufferSize(int chromosomeSize) {
+		return 4L * chromosomeSize + CoverageCursor.DEFAULT_FOOTPRINT;
+	}
+}
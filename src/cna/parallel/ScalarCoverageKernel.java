@@ -0,0 +1,78 @@
+package cna.parallel;
+
+/**
+ * Plain java implementation of the coverage kernels. Used if the vector API is not available.
+ * @author Stefan Grabuschnig
+ *
+ */
+public class ScalarCoverageKernel implements CoverageKernel {
+
+	@Override
+	public void add(float[] target, float[] addend, int from, int to) {
+		for (int i = from; i < to; i++)
+			target[i] += addend[i];
+	}
+
+	@Override
+	public void add(int[] target, int[] addend, int from, int to) {
+		for (int i = from; i < to; i++)
+			target[i] += addend[i];
+	}
+
+	@Override
+	public void scale(float[] target, float factor, int from, int to) {
+		for (int i = from; i < to; i++)
+			target[i] *= factor;
+	}
+
+	@Override
+	public void divide(float[] target, float divisor, int from, int to) {
+		for (int i = from; i < to; i++)
+			target[i] /= divisor;
+	}
+
+	@Override
+	public long sum(int[] values, int from, int to) {
+		long sum = 0;
+		for (int i = from; i < to; i++)
+			sum += values[i];
+		return sum;
+	}
+
+	@Override
+	public void prefixSum(int[] values, long[] prefix, int from, int to) {
+		long sum = 0;
+		prefix[0] = 0;
+		for (int i = from; i < to; i++) {
+			sum += values[i];
+			prefix[i - from + 1] = sum;
+		}
+	}
+
+	@Override
+	public long maskedSum(int[] values, int valuesOffset, int[] mask, int maskOffset, int length) {
+		long sum = 0;
+		for (int i = 0; i < length; i++)
+			if (mask[maskOffset + i] != 0)
+				sum += values[valuesOffset + i];
+		return sum;
+	}
+
+	@Override
+	public void normalize(int[] absolute, float[] normalized, double averageCoverage, int from, int to) {
+		for (int i = from; i < to; i++)
+			normalized[i] = (float) ((double) absolute[i] / averageCoverage);
+	}
+
+	@Override
+	public int findThresholdCrossings(float[] values, float threshold, boolean above, int[] boundaries, int from,
+			int to) {
+		int count = 0;
+		for (int i = from; i < to; i++)
+			if ((values[i] >= threshold) != above) {
+				above = !above;
+				boundaries[count++] = i;
+			}
+		return count;
+	}
+}
@@ -0,0 +1,193 @@
+package cna.parallel;
+
+import java.util.ArrayList;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CancellationException;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import cna.parallel.ExecutionRuntime.WorkloadClass;
+
+/**
+ * Structured scope for a group of subtasks running on a pool of the execution runtime. The first failing subtask
+ * cancels all other subtasks of the scope and its exception is propagated by join(). Closing the scope cancels
+ * unfinished subtasks and waits until running subtasks have terminated, so no subtask outlives its scope. Use with
+ * try-with-resources:
+ *
+ * <pre>
+ * try (TaskScope&lt;float[]&gt; scope = new TaskScope&lt;float[]&gt;(WorkloadClass.IO)) {
+ * 	for (...)
+ * 		scope.fork(task);
+ * 	ArrayList&lt;float[]&gt; results = scope.join();
+ * }
+ * </pre>
+ *
+ * @author Stefan Grabuschnig
+ *
+ * @param <T> result type of the subtasks
+ */
+public class TaskScope<T> implements AutoCloseable {
+	private final ExecutorService executor;
+	private final ConcurrentLinkedQueue<Future<T>> subtasks = new ConcurrentLinkedQueue<Future<T>>();
+	private final AtomicReference<Throwable> failure = new AtomicReference<Throwable>();
+	private final Object runningLock = new Object();
+	private int running = 0;
+	private volatile boolean closed = false;
+
+	/**
+	 * @param workloadClass workload class of the subtasks
+	 */
+	public TaskScope(WorkloadClass workloadClass) {
+		this.executor = ExecutionRuntime.getExecutor(workloadClass);
+	}
+
+	/**
+	 * Starts a subtask. Subtasks forked after a failure are cancelled immediately.
+	 * @param task the subtask
+	 * @return future of the result of the subtask
+	 */
+	public Future<T> fork(final Callable<T> task) {
+		if (this.closed)
+			throw new IllegalStateException("task scope is closed");
+
+		// counted before it is handed to the executor, so that close() waits for it
+		ScopedSubtask subtask = new ScopedSubtask(task);
+		synchronized (this.runningLock) {
+			this.running++;
+		}
+		this.subtasks.add(subtask);
+
+		if (this.failure.get() != null)
+			subtask.cancel(false);
+		else {
+			try {
+				this.executor.execute(subtask);
+			} catch (RuntimeException e) {
+				subtask.cancel(false);
+				throw e;
+			}
+		}
+		return subtask;
+	}
+
+	/**
+	 * Waits for all subtasks
+	 * @return the results of all subtasks in order of forking
+	 * @throws ExecutionException with the exception of the first failing subtask as cause
+	 * @throws InterruptedException if interrupted while waiting (all subtasks are cancelled)
+	 */
+	public ArrayList<T> join() throws ExecutionException, InterruptedException {
+		ArrayList<T> results = new ArrayList<T>(this.subtasks.size());
+		for (Future<T> subtask : this.subtasks) {
+			try {
+				results.add(subtask.get());
+			} catch (CancellationException e) {
+				if (this.failure.get() != null)
+					throw new ExecutionException(this.failure.get());
+				throw e;
+			} catch (ExecutionException e) {
+				throw new ExecutionException(this.failure.get() != null ? this.failure.get() : e.getCause());
+			} catch (InterruptedException e) {
+				this.cancel();
+				throw e;
+			}
+		}
+		return results;
+	}
+
+	/**
+	 * Cancels all unfinished subtasks
+	 */
+	public void cancel() {
+		this.fail(new CancellationException("task scope cancelled"));
+	}
+
+	/**
+	 * @return true if a subtask failed or the scope was cancelled
+	 */
+	public boolean isFailed() {
+		return this.failure.get() != null;
+	}
+
+	/**
+	 * Cancels unfinished subtasks and waits until running subtasks have terminated
+	 */
+	@Override
+	public void close() {
+		this.closed = true;
+		for (Future<T> subtask : this.subtasks)
+			subtask.cancel(true);
+
+		boolean interrupted = false;
+		synchronized (this.runningLock) {
+			while (this.running > 0) {
+				try {
+					this.runningLock.wait();
+				} catch (InterruptedException e) {
+					interrupted = true;
+				}
+			}
+		}
+		if (interrupted)
+			Thread.currentThread().interrupt();
+	}
+
+	private void fail(Throwable throwable) {
+		if (this.failure.compareAndSet(null, throwable))
+			for (Future<T> subtask : this.subtasks)
+				subtask.cancel(true);
+	}
+
+	private void finished() {
+		synchronized (this.runningLock) {
+			this.running--;
+			this.runningLock.notifyAll();
+		}
+	}
+
+	/**
+	 * Subtask reporting its failure to the scope after completion, so that it is not cancelled itself. A subtask is
+	 * released from the scope once: when its body has returned or, if it never started, when it is cancelled.
+	 */
+	private class ScopedSubtask extends FutureTask<T> {
+		private static final int PENDING = 0;
+		private static final int RUNNING = 1;
+		private static final int RELEASED = 2;
+
+		private final AtomicInteger state = new AtomicInteger(ScopedSubtask.PENDING);
+
+		ScopedSubtask(Callable<T> callable) {
+			super(callable);
+		}
+
+		@Override
+		public void run() {
+			if (!this.state.compareAndSet(ScopedSubtask.PENDING, ScopedSubtask.RUNNING))
+				return; // cancelled before it started
+			try {
+				super.run();
+			} finally {
+				this.state.set(ScopedSubtask.RELEASED);
+				TaskScope.this.finished();
+			}
+		}
+
+		@Override
+		protected void done() {
+			// cancelled before it started, a running body is released by run()
+			if (this.state.compareAndSet(ScopedSubtask.PENDING, ScopedSubtask.RELEASED))
+				TaskScope.this.finished();
+		}
+
+		@Override
+		protected void setException(Throwable throwable) {
+			super.setException(throwable);
+			TaskScope.this.fail(throwable);
+		}
+	}
+}
@@ -0,0 +1,149 @@
+package cna.parallel;
+
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.FloatVector;
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.LongVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorShape;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * SIMD implementation of the coverage kernels based on the java vector API (jdk.incubator.vector). Requires the JVM
+ * option --add-modules jdk.incubator.vector. Only instantiated reflectively by CoverageKernels.
+ * @author Stefan Grabuschnig
+ *
+ */
+public class VectorCoverageKernel implements CoverageKernel {
+	private static final VectorSpecies<Float> FLOATS = FloatVector.SPECIES_PREFERRED;
+	private static final VectorSpecies<Integer> INTS = IntVector.SPECIES_PREFERRED;
+
+	// species with equal lane counts for widening int -> long and int -> double -> float conversions
+	private static final VectorSpecies<Long> LONGS = LongVector.SPECIES_PREFERRED;
+	private static final VectorSpecies<Integer> INTS_TO_LONGS = VectorSpecies.of(int.class,
+			VectorShape.forBitSize(LONGS.vectorBitSize() / 2));
+	private static final VectorSpecies<Double> DOUBLES = DoubleVector.SPECIES_PREFERRED;
+	private static final VectorSpecies<Integer> INTS_TO_DOUBLES = VectorSpecies.of(int.class,
+			VectorShape.forBitSize(DOUBLES.vectorBitSize() / 2));
+	private static final VectorSpecies<Float> DOUBLES_TO_FLOATS = VectorSpecies.of(float.class,
+			VectorShape.forBitSize(DOUBLES.vectorBitSize() / 2));
+
+	// kernels without a vectorized implementation
+	private static final ScalarCoverageKernel SCALAR = new ScalarCoverageKernel();
+
+	@Override
+	public void add(float[] target, float[] addend, int from, int to) {
+		int i = from;
+		for (int bound = from + FLOATS.loopBound(to - from); i < bound; i += FLOATS.length())
+			FloatVector.fromArray(FLOATS, target, i).add(FloatVector.fromArray(FLOATS, addend, i)).intoArray(target,
+					i);
+		for (; i < to; i++)
+			target[i] += addend[i];
+	}
+
+	@Override
+	public void add(int[] target, int[] addend, int from, int to) {
+		int i = from;
+		for (int bound = from + INTS.loopBound(to - from); i < bound; i += INTS.length())
+			IntVector.fromArray(INTS, target, i).add(IntVector.fromArray(INTS, addend, i)).intoArray(target, i);
+		for (; i < to; i++)
+			target[i] += addend[i];
+	}
+
+	@Override
+	public void scale(float[] target, float factor, int from, int to) {
+		int i = from;
+		for (int bound = from + FLOATS.loopBound(to - from); i < bound; i += FLOATS.length())
+			FloatVector.fromArray(FLOATS, target, i).mul(factor).intoArray(target, i);
+		for (; i < to; i++)
+			target[i] *= factor;
+	}
+
+	@Override
+	public void divide(float[] target, float divisor, int from, int to) {
+		int i = from;
+		for (int bound = from + FLOATS.loopBound(to - from); i < bound; i += FLOATS.length())
+			FloatVector.fromArray(FLOATS, target, i).div(divisor).intoArray(target, i);
+		for (; i < to; i++)
+			target[i] /= divisor;
+	}
+
+	@Override
+	public long sum(int[] values, int from, int to) {
+		LongVector accumulator = LongVector.zero(LONGS);
+		int i = from;
+		for (int bound = from + INTS_TO_LONGS.loopBound(to - from); i < bound; i += INTS_TO_LONGS.length())
+			accumulator = accumulator.add(IntVector.fromArray(INTS_TO_LONGS, values, i)
+					.convertShape(VectorOperators.I2L, LONGS, 0));
+
+		long sum = accumulator.reduceLanes(VectorOperators.ADD);
+		for (; i < to; i++)
+			sum += values[i];
+		return sum;
+	}
+
+	@Override
+	public void prefixSum(int[] values, long[] prefix, int from, int to) {
+		// every element depends on the previous one, lanes do not pay off for the scan
+		VectorCoverageKernel.SCALAR.prefixSum(values, prefix, from, to);
+	}
+
+	@Override
+	public long maskedSum(int[] values, int valuesOffset, int[] mask, int maskOffset, int length) {
+		LongVector accumulator = LongVector.zero(LONGS);
+		int i = 0;
+		for (int bound = INTS_TO_LONGS.loopBound(length); i < bound; i += INTS_TO_LONGS.length()) {
+			VectorMask<Integer> m = IntVector.fromArray(INTS_TO_LONGS, mask, maskOffset + i).compare(VectorOperators.NE,
+					0);
+			accumulator = accumulator.add(IntVector.fromArray(INTS_TO_LONGS, values, valuesOffset + i, m)
+					.convertShape(VectorOperators.I2L, LONGS, 0));
+		}
+
+		long sum = accumulator.reduceLanes(VectorOperators.ADD);
+		for (; i < length; i++)
+			if (mask[maskOffset + i] != 0)
+				sum += values[valuesOffset + i];
+		return sum;
+	}
+
+	@Override
+	public void normalize(int[] absolute, float[] normalized, double averageCoverage, int from, int to) {
+		int i = from;
+		for (int bound = from + INTS_TO_DOUBLES.loopBound(to - from); i < bound; i += INTS_TO_DOUBLES.length())
+			((FloatVector) ((DoubleVector) IntVector.fromArray(INTS_TO_DOUBLES, absolute, i)
+					.convertShape(VectorOperators.I2D, DOUBLES, 0)).div(averageCoverage)
+					.convertShape(VectorOperators.D2F, DOUBLES_TO_FLOATS, 0)).intoArray(normalized, i);
+		for (; i < to; i++)
+			normalized[i] = (float) ((double) absolute[i] / averageCoverage);
+	}
+
+	@Override
+	public int findThresholdCrossings(float[] values, float threshold, boolean above, int[] boundaries, int from,
+			int to) {
+		int count = 0;
+		int lanes = FLOATS.length();
+		long laneMask = lanes == 64 ? -1L : (1L << lanes) - 1;
+		long previous = above ? 1L : 0L;
+		int i = from;
+
+		for (int bound = from + FLOATS.loopBound(to - from); i < bound; i += lanes) {
+			long bits = FloatVector.fromArray(FLOATS, values, i).compare(VectorOperators.GE, threshold).toLong();
+			long crossings = (bits ^ ((bits << 1) | previous)) & laneMask;
+			previous = (bits >>> (lanes - 1)) & 1L;
+
+			while (crossings != 0) {
+				boundaries[count++] = i + Long.numberOfTrailingZeros(crossings);
+				crossings &= crossings - 1;
+			}
+		}
+
+		above = previous == 1L;
+		for (; i < to; i++)
+			if ((values[i] >= threshold) != above) {
+				above = !above;
+				boundaries[count++] = i;
+			}
+		return count;
+	}
+}
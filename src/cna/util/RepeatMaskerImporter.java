@@ -0,0 +1,76 @@
+package cna.util;
+
+import java.io.BufferedReader;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.util.zip.GZIPInputStream;
+
+import cna.data.RepeatIntervalBuilder;
+
+/**
+ * Provides functionality to import the RepeatMasker annotation from UCSC rmsk table dumps (rmsk.txt or rmsk.txt.gz,
+ * tab separated columns bin, swScore, milliDiv, milliDel, milliIns, genoName, genoStart, genoEnd, genoLeft, strand,
+ * repName, repClass, repFamily, ...)
+ * @author Stefan Grabuschnig
+ *
+ */
+public class RepeatMaskerImporter {
+	private static final int GENO_NAME = 5;
+	private static final int GENO_START = 6;
+	private static final int GENO_END = 7;
+	private static final int REP_NAME = 10;
+	private static final int REP_CLASS = 11;
+	private static final int REP_FAMILY = 12;
+
+	/**
+	 * @param fileName path to the rmsk dump (gzip compressed if the name ends with .gz)
+	 * @return all repeats of the dump (chromosome names without chr prefix)
+	 * @throws IOException if the file cannot be read or has less than 13 columns
+	 */
+	public static RepeatIntervalBuilder importRepeats(String fileName) throws IOException {
+		RepeatIntervalBuilder repeats = new RepeatIntervalBuilder();
+
+		InputStream in = new FileInputStream(fileName);
+		if (fileName.endsWith(".gz"))
+			in = new GZIPInputStream(in, 1 << 16);
+		BufferedReader br = new BufferedReader(new InputStreamReader(in, "US-ASCII"), 1 << 16);
+		try {
+			String[] fields = new String[RepeatMaskerImporter.REP_FAMILY + 1];
+			String line = null;
+			int lineNumber = 0;
+
+			while ((line = br.readLine()) != null) {
+				lineNumber++;
+				if (line.isEmpty() || line.charAt(0) == '#')
+					continue;
+
+				// the first 13 columns (empty fields are kept, unlike StringTokenizer)
+				int from = 0;
+				for (int i = 0; i < fields.length; i++) {
+					int to = line.indexOf('\t', from);
+					if (to < 0) {
+						if (i < fields.length - 1)
+							throw new IOException(fileName + ":" + lineNumber + " has less than " + fields.length
+									+ " columns");
+						to = line.length();
+					}
+					fields[i] = line.substring(from, to);
+					from = to + 1;
+				}
+
+				String chromosome = fields[RepeatMaskerImporter.GENO_NAME];
+				if (chromosome.startsWith("chr"))
+					chromosome = chromosome.substring(3);
+				repeats.add(chromosome, Integer.parseInt(fields[RepeatMaskerImporter.GENO_START]),
+						Integer.parseInt(fields[RepeatMaskerImporter.GENO_END]),
+						fields[RepeatMaskerImporter.REP_FAMILY], fields[RepeatMaskerImporter.REP_CLASS],
+						fields[RepeatMaskerImporter.REP_NAME]);
+			}
+		} finally {
+			br.close();
+		}
+		return repeats;
+	}
+}